@@ -8,24 +8,42 @@
 
 package projetarm_v2.simulator.boilerplate;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 
 import projetarm_v2.simulator.core.Assembler;
+import projetarm_v2.simulator.core.AssemblyCache;
+import projetarm_v2.simulator.core.AssemblyListing;
 import projetarm_v2.simulator.core.Cpu;
+import projetarm_v2.simulator.core.ExecutionHistory;
+import projetarm_v2.simulator.core.IncrementalAssembler;
+import projetarm_v2.simulator.core.InputLog;
 import projetarm_v2.simulator.core.InvalidAssemblyException;
+import projetarm_v2.simulator.core.MemoryMode;
+import projetarm_v2.simulator.core.PreprocessedSource;
 import projetarm_v2.simulator.core.Preprocessor;
+import projetarm_v2.simulator.core.PreprocessorException;
 import projetarm_v2.simulator.core.Ram;
 import projetarm_v2.simulator.core.RamChunk;
+import projetarm_v2.simulator.core.RegisterSnapshot;
+import projetarm_v2.simulator.core.StopReason;
+import projetarm_v2.simulator.core.VirtualClock;
 import projetarm_v2.simulator.core.io.IO8Segment;
 import projetarm_v2.simulator.core.io.IOButton;
 import projetarm_v2.simulator.core.io.IOComponent;
@@ -61,12 +79,23 @@ public class ArmSimulator {
      * The Assembler used to assemble assembly
      */
 	private final Assembler assembler;
+
+    /**
+     * Re-encodes only the statements changed since the last program
+     */
+	private final IncrementalAssembler incrementalAssembler;
 	
 	/**
 	 * The CPU used to execute the content in RAM
 	 */
 	private Cpu cpu;
 
+    /**
+     * Snapshots of the Cpu taken while it runs to go back in time, null in turbo mode
+     */
+	private ExecutionHistory history;
+	private volatile boolean recordingHistory;
+
     /**
      * The Ram holding the content of the micro-processor (The data and the program to be executed)
      */
@@ -82,11 +111,6 @@ public class ArmSimulator {
      */
 	private BiMap<Integer, Integer> asmToLine;
 
-    /**
-     * Regexp to recognize labels
-     */
-	private static final Pattern labelPattern = Pattern.compile("([a-zA-Z]+:)");
-
     /**
      * The CPU starts executing binary in Ram at this address
      */
@@ -97,6 +121,22 @@ public class ArmSimulator {
      */
 	private int ramSize = Ram.DEFAULT_RAM_SIZE;
 
+    /**
+     * Whether the Ram or Unicorn holds the memory, applied when the Cpu is created
+     */
+	private MemoryMode memoryMode = MemoryMode.SHADOWED;
+
+    /**
+     * Whether the Cpu runs without the per-instruction hook, applied when the Cpu is created
+     */
+	private boolean turbo = false;
+
+    /**
+     * Where the files included by the program are looked for, null for the working directory
+     */
+	private Path sourceDirectory;
+	private String programHash;
+
     /**
      * Save every data related to the current simulation (assembly, I/O components)
      */
@@ -111,25 +151,38 @@ public class ArmSimulator {
 	private CpuConsoleClear guiConsole;
 	
 	private Random random;
+
+	private VirtualClock clock;
 	
 	/**
 	 * Creates a arm simulator ready to use, with all the needed components (cpu,
 	 * program, asmToLine, assembler)
 	 */
 	public ArmSimulator() {
+		this(new Ram());
+	}
+
+	/**
+	 * Creates a arm simulator using the given Ram, its content is kept
+	 * @param ram The Ram, for example a memory-mapped image (see {@link Ram#mapped})
+	 */
+	public ArmSimulator(Ram ram) {
 		this.save = new Save();
 		
-		this.ram = new Ram();
+		this.ram = ram;
+		this.ramSize = (int) Math.max(Ram.DEFAULT_RAM_SIZE, ram.getBackedSize());
 		
 		this.assembler = Assembler.getInstance();
+		this.incrementalAssembler = new IncrementalAssembler(this.assembler);
 		this.asmToLine = HashBiMap.create();
 		this.random = new Random();
 		
 		this.consoleBuffer = new ConcurrentLinkedQueue<>();
 		this.waitingForInput = new AtomicBoolean(false);
-		this.portManager = new PORTManager(this.ram);
+		this.clock = new VirtualClock(() -> this.cpu.getInstructionCount());
+		this.portManager = new PORTManager(this.ram, this.clock);
 		
-		this.resetState();
+		this.createCpu();
 	}
 
 	/**
@@ -140,9 +193,10 @@ public class ArmSimulator {
 	 * @throws IOException
 	 */
 	public void loadSaveFromFile(String path) throws IOException {
-		this.portManager = new PORTManager(this.ram);
+		this.portManager = new PORTManager(this.ram, this.clock);
 		
 		this.save = Save.fromPath(path);
+		this.sourceDirectory = Paths.get(path).toAbsolutePath().getParent();
 		
 		this.portManager.generateIOComponents(this.save.getComponentsAndReset());
 		
@@ -153,6 +207,14 @@ public class ArmSimulator {
 		this.setProgram(this.save.getProgram());
 	}
 	
+	/**
+	 * Set where the files included by the program are looked for
+	 * @param directory The directory of the program, or null for the working directory
+	 */
+	public void setSourceDirectory(Path directory) {
+		this.sourceDirectory = directory;
+	}
+
 	/**
 	 * Get saved assembly
 	 * @return Saved assembly as String
@@ -181,18 +243,90 @@ public class ArmSimulator {
 	}
 	
 	
+	/**
+	 * Set or remove the breakpoint on a line of assembly
+	 * @param line Line of the assembly's instruction
+	 * @return true if the line now has a breakpoint, false if it was removed or the line has no instruction
+	 */
+	public boolean toggleBreakpointAtLine(int line) {
+		int address = this.getAddressFromLine(line);
+		
+		if (address == 0) {
+			return false;
+		}
+		
+		if (this.cpu.hasBreakpoint(address)) {
+			this.cpu.removeBreakpoint(address);
+			return false;
+		}
+		
+		this.cpu.addBreakpoint(address);
+		return true;
+	}
+	
+	/**
+	 * @param line Line of the assembly's instruction
+	 * @return true if the instruction of the line has a breakpoint
+	 */
+	public boolean hasBreakpointAtLine(int line) {
+		int address = this.getAddressFromLine(line);
+		return address != 0 && this.cpu.hasBreakpoint(address);
+	}
+	
+	/**
+	 * Set a breakpoint at the given address
+	 * @param address The address of the instruction
+	 */
+	public void addBreakpoint(long address) {
+		this.cpu.addBreakpoint(address);
+	}
+	
+	/**
+	 * Remove the breakpoint at the given address
+	 * @param address The address of the instruction
+	 */
+	public void removeBreakpoint(long address) {
+		this.cpu.removeBreakpoint(address);
+	}
+	
+	/**
+	 * Remove every breakpoint
+	 */
+	public void clearBreakpoints() {
+		this.cpu.clearBreakpoints();
+	}
+	
+	/**
+	 * @return true if the last run stopped on a breakpoint
+	 */
+	public boolean hasStoppedOnBreakpoint() {
+		return this.cpu.hasStoppedOnBreakpoint();
+	}
+	
 	/**
 	 * Assemble and load the given assembly in Ram
 	 * @param assembly The assembly to load
 	 */
 	public void setProgram(String assembly) {
 		this.save.setProgram(assembly);
-		assembly = Preprocessor.pass1(assembly);
+
+		PreprocessedSource source;
 		try {
-			fillRamWithAssembly(assembly);
-		} catch (InvalidAssemblyException e) {/* This is going to get caught by fillAddressLineMap */}
+			source = Preprocessor.preprocess(assembly, this.sourceDirectory);
+		} catch (PreprocessorException e) {
+			throw new InvalidInstructionException("[ERROR] " + e.getMessage() + " @ Line " + e.getLine(), e.getLine());
+		}
+
+		AssemblyListing listing;
+		try {
+			listing = this.incrementalAssembler.assemble(source.getStatements(), startingAddress);
+		} catch (InvalidAssemblyException e) {
+			this.asmToLine.clear();
+			this.incrementalAssembler.reset();
+			throw this.locateError(source, e);
+		}
 
-		fillAddressLineMap(assembly);
+		fillRamWithListing(listing, source);
 	}
 
 	/**
@@ -211,52 +345,54 @@ public class ArmSimulator {
 	}
 	
 	/**
-	 * Assemble and load the given Assembly into Ram
-	 * @param assembly The assembly to load into Ram
+	 * Load the assembled program into Ram and create the Ram Address <=> Editor Line map
+	 * @param listing The program assembled from the statements of the preprocessed assembly
+	 * @param source The preprocessed assembly, which gives the line of each statement
 	 */
-	private void fillRamWithAssembly(String assembly) {
-		this.asmToLine.clear();
-
-		byte[] binary = (this.assembler.assemble(assembly, startingAddress));
+	private void fillRamWithListing(AssemblyListing listing, PreprocessedSource source) {
+		byte[] binary = listing.getBytes();
+		this.programHash = AssemblyCache.key("program", binary, startingAddress);
 
-		for (int i = 0; i < binary.length; i++) {
-			this.ram.setByte((long)startingAddress + i, binary[i]);
+		if (this.history != null) {
+			this.history.clear(); // Going back would bring the previous program back
 		}
+
+		this.ram.write(startingAddress, binary);
 		
 		this.cpu.setEndAddress((long)startingAddress + binary.length);
+
+		asmToLine.clear();
+
+		for (int i = 0; i < listing.size(); i++) {
+			int address = (int)listing.getAddress(i);
+			int line = source.getLine(i);
+			Integer lineAddress = asmToLine.inverse().get(line);
+
+			// A line holding several instructions is mapped to its first one
+			if (lineAddress != null && lineAddress != address) {
+				continue;
+			}
+
+			// Lines without data share their address with the next instruction, which takes it over
+			asmToLine.put(address, line);
+		}
 	}
 
 	/**
-	 * Create the Ram Address <=> Editor Line map
-	 * @param assembly The exact same assembly that was previously loaded in Ram
+	 * Find the line responsible for an assembly error from the statement it reports
+	 * @param source The preprocessed assembly which failed to assemble
+	 * @param error The error of the whole program
+	 * @return The error with its line, or line 0 if the statement is unknown
 	 */
-	private void fillAddressLineMap(String assembly) {
-		
-		int currentLine = 1;
-		int currentAddress = (int)this.cpu.getStartingAddress();
-
-		Matcher matcher = labelPattern.matcher(assembly);
+	private InvalidInstructionException locateError(PreprocessedSource source, InvalidAssemblyException error) {
+		int statement = error.getStatement();
 
-		StringBuilder labelsBuilder = new StringBuilder();
-		while (matcher.find()) {
-			labelsBuilder.append(matcher.group());
-		}
-		String labels = labelsBuilder.toString();
-		
-		for (String line : assembly.split(";")) {
-			if (line != "") {
-				byte[] lineBytes;
-				try {
-					lineBytes = (this.assembler.assemble(labels + line.substring(Math.abs(line.indexOf(':') + 1)),
-						currentAddress));
-				} catch (InvalidAssemblyException e) {
-					throw new InvalidInstructionException("[ERROR] " + e.getMessage() + " @ Line " + currentLine, currentLine);
-				}
-				asmToLine.put(currentAddress, currentLine);
-				currentAddress += lineBytes.length - (line.contains("=") ? 1 : 0) * 4;
-				currentLine += 1;
-			}
+		if (statement < 0 || statement >= source.getStatements().size()) {
+			return new InvalidInstructionException("[ERROR] " + error.getMessage(), 0);
 		}
+
+		int line = source.getLine(statement);
+		return new InvalidInstructionException("[ERROR] " + error.getMessage() + " @ Line " + line, line);
 	}
 
 	/**
@@ -374,10 +510,16 @@ public class ArmSimulator {
 	 */
 	public void run() {
 		long address = this.cpu.getCurrentAddress();
-		try {
-			this.cpu.runAllAtOnce();
-		} catch (UnicornException e) {
-			this.handleException(e);
+		if (this.useHistory()) {
+			if (this.history.run() == StopReason.FAULT) {
+				this.handleException(this.cpu.getLastFault());
+			}
+		} else {
+			try {
+				this.cpu.runAllAtOnce();
+			} catch (UnicornException e) {
+				this.handleException(e);
+			}
 		}
 		
 		try {
@@ -392,15 +534,170 @@ public class ArmSimulator {
 		
 	}
 
+	/**
+	 * Execute at most the given number of instructions, the program can be resumed by calling this method again
+	 * @param maxInstructions The maximum number of instructions to execute, 0 for no limit
+	 * @return Why the execution stopped
+	 */
+	public StopReason run(long maxInstructions) {
+		StopReason reason = this.useHistory() ? this.history.run(maxInstructions, null) : this.cpu.run(maxInstructions);
+		if (reason == StopReason.FAULT) {
+			this.handleException(this.cpu.getLastFault());
+		}
+		return reason;
+	}
+	
+	/**
+	 * Execute instructions during at most the given time, the program can be resumed by calling this method again
+	 * @param slice The maximum duration of the run
+	 * @return Why the execution stopped
+	 */
+	public StopReason run(Duration slice) {
+		StopReason reason = this.useHistory() ? this.history.run(0, slice) : this.cpu.run(slice);
+		if (reason == StopReason.FAULT) {
+			this.handleException(this.cpu.getLastFault());
+		}
+		return reason;
+	}
+
 	/**
 	 * Execute a single instruction at the currentAddress
 	 */
 	public void runStep() {
+		boolean recording = this.useHistory();
 		try {
 			this.cpu.runStep();
 		} catch (UnicornException e) {
 			this.handleException(e);
 		}
+		if (recording) {
+			this.history.stepped();
+		}
+	}
+
+	/**
+	 * Record the execution so it can go back, see {@link #stepBack()}. Recording slows the execution down, it is off
+	 * by default. The change applies to the next execution, the history starts there.
+	 * @param recordingHistory true to record the history, false to forget it
+	 */
+	public void setRecordingHistory(boolean recordingHistory) {
+		this.recordingHistory = recordingHistory;
+	}
+
+	public boolean isRecordingHistory() {
+		return this.recordingHistory;
+	}
+
+	/**
+	 * Go back before the last executed instruction.
+	 * The Cpu goes back to the closest snapshot and executes the program again with the inputs it read.
+	 * @return false if there is no instruction to go back to or in turbo mode
+	 */
+	public boolean stepBack() {
+		if (!this.canRunBackwards()) {
+			return false;
+		}
+		return this.history.stepBack();
+	}
+
+	/**
+	 * Go back to the last breakpoint reached before the current instruction, or to the start of the program
+	 * @return true if a breakpoint has been found
+	 */
+	public boolean runBackToBreakpoint() {
+		if (!this.canRunBackwards()) {
+			return false;
+		}
+		return this.history.reverseContinue();
+	}
+
+	/**
+	 * Save the inputs read by the program since it was loaded: console, files, time, random numbers and I/O ports,
+	 * each one with the number of instructions executed when it was read
+	 * @param path The file of the journal
+	 * @throws IOException If the file can't be written
+	 */
+	public void saveInputJournal(Path path) throws IOException {
+		InputLog log = this.cpu.getInputLog();
+		if (log == null) {
+			log = new InputLog(); // Nothing has been executed yet
+		}
+		log.setProgramHash(this.programHash);
+
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+			log.write(out);
+		}
+	}
+
+	/**
+	 * Replay a journal saved by {@link #saveInputJournal(Path)}: the program, loaded again, reads the inputs of the
+	 * journal instead of waiting for them, so the recorded session runs at full speed.
+	 * Once the journal is exhausted the inputs are read as usual.
+	 * @param path The file of the journal
+	 * @return false in turbo mode, where the instructions are not counted, or if the journal was recorded with
+	 * another program
+	 * @throws IOException If the file can't be read or isn't a journal
+	 */
+	public boolean replayInputJournal(Path path) throws IOException {
+		if (this.history == null) {
+			System.out.println("[WARNING] Journals can't be replayed in turbo mode");
+			return false;
+		}
+
+		InputLog journal;
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+			journal = InputLog.read(in);
+		}
+
+		if (journal.getProgramHash() == null) {
+			System.out.println("[WARNING] The journal doesn't say which program recorded it, its inputs may not match");
+		} else if (!journal.getProgramHash().equals(this.programHash)) {
+			System.out.println("[ERROR] The journal was recorded with another program");
+			return false;
+		}
+
+		if (this.useHistory()) {
+			// The history starts here with an empty log, which the journal then replaces
+			this.history.start();
+		}
+		this.cpu.setInputLog(journal);
+		journal.rewind(this.cpu.getInstructionCount());
+
+		System.out.println("[INFO] " + journal.size() + " inputs to replay");
+		return true;
+	}
+
+	private boolean canRunBackwards() {
+		if (this.history == null) {
+			System.out.println("[INFO] Going back isn't available in turbo mode");
+			return false;
+		}
+		if (!this.recordingHistory) {
+			System.out.println("[INFO] Going back needs the history to be recorded");
+			return false;
+		}
+		return this.history.isRecording();
+	}
+
+	/**
+	 * Called before every execution: the history starts with the first instruction executed once the recording is
+	 * turned on, and is forgotten once it is turned off
+	 * @return true if the execution has to go through the history
+	 */
+	private boolean useHistory() {
+		if (this.history == null) {
+			return false;
+		}
+		if (!this.recordingHistory) {
+			if (this.history.isRecording()) {
+				this.history.clear();
+			}
+			return false;
+		}
+		if (!this.history.isRecording()) {
+			this.history.start();
+		}
+		return true;
 	}
 
 	private void handleException(UnicornException e) {
@@ -426,13 +723,40 @@ public class ArmSimulator {
 	 * Resets the processor state
 	 */
 	public void resetState() {
+		if (this.history != null) {
+			this.history.clear();
+		}
 		this.ram.clear();
-		this.cpu = new Cpu(ram, this.startingAddress, this.ramSize);
+		
+		if (this.cpu.getMemoryMode() == this.memoryMode && this.cpu.isTurbo() == this.turbo) {
+			this.cpu.reset(); // Much cheaper than a new Unicorn instance
+		} else {
+			this.createCpu();
+		}
+	}
+
+	private void createCpu() {
+		long[] breakpoints = this.cpu == null ? new long[0] : this.cpu.getBreakpoints();
+		
+		this.cpu = new Cpu(ram, this.startingAddress, this.ramSize, this.memoryMode, this.turbo);
+		this.cpu.setClock(this.clock);
+		this.clock.reset();
+		if (!this.turbo) {
+			this.cpu.setInputLog(new InputLog()); // For the journals, even without history
+		}
+		for (long address : breakpoints) {
+			this.cpu.addBreakpoint(address);
+		}
 		this.cpu.registerCpuRoutine(new CpuConsoleGetString(cpu, consoleBuffer, waitingForInput));
 		this.cpu.registerCpuRoutine(new CpuConsoleGetChar(cpu, consoleBuffer, waitingForInput));
 		this.guiConsole = new CpuConsoleClear(cpu);
 		this.guiConsole.setConsoleView(consoleView);
 		this.cpu.registerCpuRoutine(guiConsole);
+		
+		if (this.history != null) {
+			this.history.clear();
+		}
+		this.history = this.turbo ? null : new ExecutionHistory(this.cpu);
 	}
 
 	/**
@@ -450,6 +774,41 @@ public class ArmSimulator {
 		this.startingAddress = startingAddress;
 	}
 	
+	/**
+	 * @return Whether the Ram or Unicorn holds the memory
+	 */
+	public MemoryMode getMemoryMode() {
+		return this.memoryMode;
+	}
+
+	/**
+	 * @param memoryMode Whether the Ram or Unicorn holds the memory, takes effect on the next resetState()
+	 */
+	public void setMemoryMode(MemoryMode memoryMode) {
+		this.memoryMode = memoryMode;
+	}
+
+	/**
+	 * @return The clock giving the time to the program and the I/O components, its mode can be changed at any time
+	 */
+	public VirtualClock getClock() {
+		return this.clock;
+	}
+
+	/**
+	 * @return Whether the Cpu runs without the per-instruction hook
+	 */
+	public boolean isTurbo() {
+		return this.turbo;
+	}
+
+	/**
+	 * @param turbo Whether the Cpu runs without the per-instruction hook, takes effect on the next resetState()
+	 */
+	public void setTurbo(boolean turbo) {
+		this.turbo = turbo;
+	}
+
 	/**
 	 * @return The ramSize in bytes
 	 */
@@ -457,6 +816,36 @@ public class ArmSimulator {
 		return this.ramSize;
 	}
 	
+	/**
+	 * @return The values of R0 to R15 and of the CPSR, read at once
+	 */
+	public RegisterSnapshot snapshotRegisters() {
+		return this.cpu.snapshotRegisters();
+	}
+
+	/**
+	 * Take the state of the whole machine: registers, CPSR, memory and I/O ports, console input and opened files.
+	 * Taking a snapshot is cheap as the memory pages are only copied once written.
+	 * @return The snapshot, to be closed once it isn't needed anymore
+	 */
+	public MachineSnapshot snapshot() {
+		return new MachineSnapshot(this.cpu.snapshot(), this.consoleBuffer.toArray(new Character[0]));
+	}
+
+	/**
+	 * Put the whole machine back in the state of the snapshot, only the memory pages which differ are touched
+	 * @param snapshot A snapshot taken since the Cpu was last created
+	 */
+	public void restore(MachineSnapshot snapshot) {
+		if (this.history != null) {
+			this.history.clear();
+		}
+		this.cpu.restore(snapshot.cpu);
+
+		this.consoleBuffer.clear();
+		this.consoleBuffer.addAll(Arrays.asList(snapshot.consoleBuffer));
+	}
+
 	/**
 	 * @return the Negative Flag status
 	 */
@@ -597,6 +986,10 @@ public class ArmSimulator {
 	 * Interrupt the flow of execution of the Cpu
 	 */
 	public void interruptExecutionFlow() {
-		this.cpu.interruptMe();
+		if (this.history != null) {
+			this.history.interrupt();
+		} else {
+			this.cpu.interruptMe();
+		}
 	}
 }
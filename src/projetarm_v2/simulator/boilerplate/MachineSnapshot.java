@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.boilerplate;
+
+import projetarm_v2.simulator.core.CpuSnapshot;
+
+/**
+ * The state of the whole simulated machine, see {@link ArmSimulator#snapshot()}:
+ * the Cpu with its memory, which holds the I/O ports, and the console input
+ * not read yet by the program.
+ */
+public final class MachineSnapshot implements AutoCloseable {
+	final CpuSnapshot cpu;
+	final Character[] consoleBuffer;
+
+	MachineSnapshot(CpuSnapshot cpu, Character[] consoleBuffer) {
+		this.cpu = cpu;
+		this.consoleBuffer = consoleBuffer;
+	}
+
+	/**
+	 * @return The address of the next instruction to execute
+	 */
+	public long getCurrentAddress() {
+		return this.cpu.getCurrentAddress();
+	}
+
+	/**
+	 * Free the native part of the snapshot, it can't be restored anymore
+	 */
+	@Override
+	public void close() {
+		this.cpu.close();
+	}
+}
@@ -12,11 +12,22 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import projetarm_v2.simulator.utils.NativeJarGetter;
 import projetarm_v2.simulator.utils.OSValidator;
+import projetarm_v2.simulator.utils.UserCache;
 
 public class Assembler {
 	/**
@@ -24,26 +35,219 @@ public class Assembler {
 	 */
 	private Pattern pattern = Pattern.compile("\\[ (.*) \\]");
 	private Pattern errorPattern = Pattern.compile("'(.*) \\(.*'");
+	private static final int CACHE_CAPACITY = 64;
+	/**
+	 * To change with any encoding of the Java assembler or the bundled Keystone, the persistent cache is kept by version
+	 */
+	private static final String ASSEMBLER_VERSION = "v2";
 	private static Assembler assembler;
 	private File executable;
+	private KeystoneEngine keystone;
+	private boolean nativeLoaded;
+	private final JavaAssembler javaAssembler;
+	private final AssemblyCache cache;
 	
-	public static Assembler getInstance() {
+	public static synchronized Assembler getInstance() {
 		if (Assembler.assembler == null) {
+			Assembler.assembler = new Assembler();
+		}
+		return Assembler.assembler;
+	}
+
+	private Assembler() {
+		this.cache = new AssemblyCache(CACHE_CAPACITY, cacheDirectory());
+		this.javaAssembler = new JavaAssembler();
+	}
+
+	/**
+	 * Load Keystone, or kstool when the library can't be loaded, the first time a program needs it
+	 */
+	private synchronized void loadNative() {
+		if (this.nativeLoaded) {
+			return;
+		}
+
+		try {
+			this.keystone = KeystoneEngine.load();
+		} catch (IOException | RuntimeException | UnsatisfiedLinkError e) {
+			System.out.println("[INFO] Keystone library unavailable (" + e.getMessage() + "), using kstool");
+			this.keystone = null;
+		}
+
+		if (this.keystone == null) {
 			try {
-				Assembler.assembler = new Assembler();
+				this.executable = NativeJarGetter.getInstance().getNativeExecutable("kstool");
 			} catch (IOException e) {
-				e.printStackTrace();
-				System.exit(-1);
+				throw new InvalidAssemblyException("No assembler for this program: " + e.getMessage());
 			}
 		}
-		return Assembler.assembler;
+		this.nativeLoaded = true;
 	}
 
-	private Assembler() throws IOException {
-		this.executable = NativeJarGetter.getInstance().getNativeExecutable("kstool");
+	/**
+	 * @return false if the programs the Java assembler doesn't handle start a kstool process
+	 */
+	public boolean isInProcess() {
+		return !this.nativeLoaded || this.keystone != null;
+	}
+
+	/**
+	 * @return The cache of the assembled programs, with its hit and miss statistics
+	 */
+	public AssemblyCache getCache() {
+		return this.cache;
 	}
 
 	public byte[] assemble(String assembly, long startingAddress) {
+		String key = AssemblyCache.key("binary", assembly, startingAddress);
+		AssemblyListing cached = this.cache.get(key);
+
+		if (cached == null) {
+			cached = new AssemblyListing(startingAddress, this.assembleUncached(assembly, startingAddress), new int[0], new int[0]);
+			this.cache.put(key, cached);
+		}
+
+		return cached.getBytes().clone();
+	}
+
+	private byte[] assembleUncached(String assembly, long startingAddress) {
+		return this.assembleUncached(Collections.singletonList(assembly), startingAddress);
+	}
+
+	/**
+	 * The errors give the index of the line holding the invalid statement, when it can be found
+	 * @param lines The lines of the program, each one may hold several statements
+	 */
+	private byte[] assembleUncached(List<String> lines, long startingAddress) {
+		try {
+			return this.javaAssembler.assemble(lines, startingAddress);
+		} catch (UnsupportedAssemblyException e) {
+			// Keystone handles the rest of the instruction set
+		}
+
+		this.loadNative();
+
+		String assembly = String.join(";", lines);
+		try {
+			if (this.keystone != null) {
+				return this.keystone.assemble(assembly, startingAddress);
+			}
+			return this.runKstool(assembly, startingAddress);
+		} catch (InvalidAssemblyException e) {
+			// Keystone doesn't say where the error is
+			throw new InvalidAssemblyException(e.getMessage(), this.javaAssembler.locateError(lines, startingAddress));
+		}
+	}
+
+	/**
+	 * Assemble every statement with a single kstool run and locate each of them in the binary.
+	 *
+	 * A label is put before every statement and a table of these labels is assembled after the
+	 * program, behind a .ltorg so the literal pool stays where it would be without the table.
+	 *
+	 * @param statements The statements, in order, as produced by the Preprocessor
+	 * @param startingAddress The address of the first statement
+	 * @return The binary without the table, and the address and size of each statement
+	 */
+	public AssemblyListing assembleListing(List<String> statements, long startingAddress) {
+		return this.assembleListing(statements, startingAddress, true);
+	}
+
+	/**
+	 * @param persistent false for a part of a program, which isn't worth keeping after a restart
+	 */
+	AssemblyListing assembleListing(List<String> statements, long startingAddress, boolean persistent) {
+		String key = AssemblyCache.key("listing", String.join("\n", statements), startingAddress);
+		AssemblyListing listing = this.cache.get(key);
+
+		if (listing == null) {
+			listing = this.assembleListingUncached(statements, startingAddress);
+			this.cache.put(key, listing, persistent);
+		}
+
+		return listing;
+	}
+
+	private AssemblyListing assembleListingUncached(List<String> statements, long startingAddress) {
+		int count = statements.size();
+		List<String> program = new ArrayList<>();
+		StringBuilder table = new StringBuilder(".word ");
+
+		// The statement i is the line 2 * i + 1
+		for (int i = 0; i < count; i++) {
+			program.add(listingLabel(i) + ":");
+			program.add(statements.get(i));
+			table.append(listingLabel(i)).append(',');
+		}
+		program.addAll(Arrays.asList(listingLabel(count) + ":", ".ltorg", ".align 2"));
+		program.add(table.append(listingLabel(count)).toString());
+
+		byte[] binary;
+		try {
+			binary = this.assembleUncached(program, startingAddress);
+		} catch (InvalidAssemblyException e) {
+			int line = e.getStatement();
+			throw new InvalidAssemblyException(e.getMessage(), line >= 0 && line < 2 * count ? line / 2 : -1);
+		}
+
+		int tableStart = binary.length - 4 * (count + 1);
+		if (tableStart < 0) {
+			throw new InvalidAssemblyException("Unexpected listing of " + binary.length + " bytes for " + count + " statements");
+		}
+
+		ByteBuffer addresses = ByteBuffer.wrap(binary, tableStart, 4 * (count + 1)).order(ByteOrder.LITTLE_ENDIAN);
+		int[] offsets = new int[count + 1];
+
+		for (int i = 0; i <= count; i++) {
+			offsets[i] = (int) ((addresses.getInt() & 0xFFFFFFFFL) - startingAddress);
+		}
+
+		int[] sizes = new int[count];
+		for (int i = 0; i < count; i++) {
+			sizes[i] = offsets[i + 1] - offsets[i];
+		}
+
+		// Without a literal pool, only the alignment of the table follows the last statement
+		int length = tableStart - offsets[count] < 4 ? offsets[count] : tableStart;
+
+		return new AssemblyListing(startingAddress, Arrays.copyOf(binary, length), Arrays.copyOf(offsets, count), sizes);
+	}
+
+	/**
+	 * @return The directory of the current assembler version, the entries of the other versions are deleted
+	 */
+	private static Path cacheDirectory() {
+		try {
+			Path root = UserCache.getDirectory("assembly");
+			Path directory = Files.createDirectories(root.resolve(ASSEMBLER_VERSION));
+
+			try (Stream<Path> stale = Files.walk(root)) {
+				stale.sorted(Comparator.reverseOrder())
+						.filter(file -> !file.startsWith(directory) && !file.equals(root))
+						.forEach(file -> file.toFile().delete());
+			}
+			return directory;
+		} catch (IOException e) {
+			System.out.println("[WARNING] Can't create the assembly cache directory (" + e.getMessage() + "), caching in memory only");
+			return null;
+		}
+	}
+
+	/**
+	 * Labels made of letters only, the Preprocessor removes digits from labels
+	 */
+	private static String listingLabel(int index) {
+		StringBuilder label = new StringBuilder("zzlisting");
+
+		do {
+			label.append((char) ('a' + index % 26));
+			index /= 26;
+		} while (index > 0);
+
+		return label.toString();
+	}
+
+	private byte[] runKstool(String assembly, long startingAddress) {
 		try {
 			if (OSValidator.isWindows()) {
 				assembly = assembly.replaceAll("\"", "\\\\\"");
@@ -51,10 +255,16 @@ public class Assembler {
 			
 			Process p = new ProcessBuilder(executable.getAbsolutePath(), "arm", assembly, Long.toHexString(startingAddress))
 					.start();
-			BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
 
-			String result = reader.readLine();
+			String result;
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+				result = reader.readLine();
+			}
 			
+			if (result == null) {
+				throw new InvalidAssemblyException("kstool returned nothing");
+			}
+
 			Matcher matcher = pattern.matcher(result);
 
 			if (!matcher.find()) {
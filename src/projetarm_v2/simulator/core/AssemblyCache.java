@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Assembled programs keyed by a SHA-256 of their source and starting address.
+ * The most recently used ones are kept in memory, and the persistent entries
+ * are also written in a directory so they survive restarts. The directory
+ * keeps the most recently used entries only.
+ */
+public class AssemblyCache {
+
+	public static final int DEFAULT_DISK_CAPACITY = 256;
+	private static final int FORMAT_VERSION = 1;
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	private final Map<String, AssemblyListing> entries;
+	private final Path directory;
+	private final int diskCapacity;
+
+	private long hits;
+	private long diskHits;
+	private long misses;
+
+	/**
+	 * @param capacity The number of entries kept in memory
+	 * @param directory The directory of the persistent store, or null to only keep entries in memory
+	 */
+	public AssemblyCache(int capacity, Path directory) {
+		this(capacity, directory, DEFAULT_DISK_CAPACITY);
+	}
+
+	/**
+	 * @param capacity The number of entries kept in memory
+	 * @param directory The directory of the persistent store, or null to only keep entries in memory
+	 * @param diskCapacity The number of entries kept in the directory
+	 */
+	public AssemblyCache(int capacity, Path directory, int diskCapacity) {
+		this.directory = directory;
+		this.diskCapacity = diskCapacity;
+		this.entries = new LinkedHashMap<String, AssemblyListing>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, AssemblyListing> eldest) {
+				return this.size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * @param kind What the source was assembled into, so the same source can have several entries
+	 * @param source The preprocessed source
+	 * @param startingAddress The address the source was assembled at
+	 * @return The key of the entry
+	 */
+	public static String key(String kind, String source, long startingAddress) {
+		return key(kind, source.getBytes(StandardCharsets.UTF_8), startingAddress);
+	}
+
+	/**
+	 * @param kind What the content is, so the same bytes can have several entries
+	 * @param content The bytes to hash, a source or an assembled program
+	 * @param startingAddress The address the content belongs at
+	 * @return The SHA-256 of the content, in hexadecimal
+	 */
+	public static String key(String kind, byte[] content, long startingAddress) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update((kind + '@' + Long.toHexString(startingAddress) + '\n').getBytes(StandardCharsets.UTF_8));
+			digest.update(content);
+
+			StringBuilder key = new StringBuilder();
+			for (byte value : digest.digest()) {
+				key.append(String.format("%02x", value));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // Every JVM provides SHA-256
+		}
+	}
+
+	/**
+	 * @return The entry, or null if the source was never assembled
+	 */
+	public synchronized AssemblyListing get(String key) {
+		AssemblyListing listing = this.entries.get(key);
+
+		if (listing != null) {
+			this.hits++;
+			return listing;
+		}
+
+		listing = this.read(key);
+
+		if (listing != null) {
+			this.diskHits++;
+			this.entries.put(key, listing);
+			return listing;
+		}
+
+		this.misses++;
+		return null;
+	}
+
+	public synchronized void put(String key, AssemblyListing listing) {
+		this.put(key, listing, true);
+	}
+
+	/**
+	 * @param persistent false to keep the entry in memory only, for the assemblies of a part of a program
+	 */
+	public synchronized void put(String key, AssemblyListing listing, boolean persistent) {
+		this.entries.put(key, listing);
+
+		if (persistent && this.directory != null) {
+			this.write(key, listing);
+			this.trim();
+		}
+	}
+
+	/**
+	 * Forget the entries kept in memory, the persistent store is kept
+	 */
+	public synchronized void clear() {
+		this.entries.clear();
+	}
+
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	public synchronized long getDiskHits() {
+		return this.diskHits;
+	}
+
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "AssemblyCache [hits=" + this.hits + ", diskHits=" + this.diskHits + ", misses=" + this.misses
+				+ ", entries=" + this.entries.size() + "]";
+	}
+
+	private AssemblyListing read(String key) {
+		if (this.directory == null) {
+			return null;
+		}
+
+		Path file = this.directory.resolve(key);
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != FORMAT_VERSION) {
+				return null;
+			}
+
+			long startingAddress = in.readLong();
+			int count = in.readInt();
+			int[] offsets = new int[count];
+			int[] sizes = new int[count];
+
+			for (int i = 0; i < count; i++) {
+				offsets[i] = in.readInt();
+				sizes[i] = in.readInt();
+			}
+
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+
+			// The store keeps the entries used most recently
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+
+			return new AssemblyListing(startingAddress, bytes, offsets, sizes);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			System.out.println("[WARNING] Ignoring the cached assembly " + key + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	private void write(String key, AssemblyListing listing) {
+		try {
+			Path temporary = Files.createTempFile(this.directory, key, TEMPORARY_SUFFIX);
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+				out.writeInt(FORMAT_VERSION);
+				out.writeLong(listing.getStartingAddress());
+				out.writeInt(listing.size());
+
+				for (int i = 0; i < listing.size(); i++) {
+					out.writeInt(listing.getOffset(i));
+					out.writeInt(listing.getSize(i));
+				}
+
+				out.writeInt(listing.getBytes().length);
+				out.write(listing.getBytes());
+			}
+
+			// Readers never see a partially written entry
+			Files.move(temporary, this.directory.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.out.println("[WARNING] Can't cache the assembly " + key + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Delete the least recently used entries of the directory above its capacity
+	 */
+	private void trim() {
+		List<Path> files = new ArrayList<>();
+
+		try (Stream<Path> list = Files.list(this.directory)) {
+			list.filter(file -> !file.getFileName().toString().endsWith(TEMPORARY_SUFFIX)).forEach(files::add);
+		} catch (IOException e) {
+			System.out.println("[WARNING] Can't trim the assembly cache: " + e.getMessage());
+			return;
+		}
+
+		if (files.size() <= this.diskCapacity) {
+			return;
+		}
+
+		files.sort(Comparator.comparingLong(file -> file.toFile().lastModified()));
+
+		for (Path file : files.subList(0, files.size() - this.diskCapacity)) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				// Another JVM may be reading it, it goes with the next trim
+			}
+		}
+	}
+}
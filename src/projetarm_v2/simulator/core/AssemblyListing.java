@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.core;
+
+import java.util.Arrays;
+
+/**
+ * The result of assembling a list of statements at once: the binary and where
+ * each statement landed in it.
+ */
+public final class AssemblyListing {
+	private final long startingAddress;
+	private final byte[] bytes;
+	private final int[] offsets;
+	private final int[] sizes;
+
+	/**
+	 * @param startingAddress The address of the first byte
+	 * @param bytes The binary, literal pools included
+	 * @param offsets The offset in the binary of each statement
+	 * @param sizes The number of bytes produced by each statement
+	 */
+	public AssemblyListing(long startingAddress, byte[] bytes, int[] offsets, int[] sizes) {
+		this.startingAddress = startingAddress;
+		this.bytes = bytes;
+		this.offsets = offsets;
+		this.sizes = sizes;
+	}
+
+	public long getStartingAddress() {
+		return this.startingAddress;
+	}
+
+	/**
+	 * @return The binary, the caller must not modify it
+	 */
+	public byte[] getBytes() {
+		return this.bytes;
+	}
+
+	/**
+	 * @return The number of statements
+	 */
+	public int size() {
+		return this.offsets.length;
+	}
+
+	/**
+	 * @return The address of the first byte of the statement
+	 */
+	public long getAddress(int statement) {
+		return this.startingAddress + this.offsets[statement];
+	}
+
+	public int getOffset(int statement) {
+		return this.offsets[statement];
+	}
+
+	/**
+	 * @return The number of bytes of the statement, 0 for labels, directives without data and empty statements
+	 */
+	public int getSize(int statement) {
+		return this.sizes[statement];
+	}
+
+	@Override
+	public String toString() {
+		return "AssemblyListing [startingAddress=0x" + Long.toHexString(this.startingAddress) + ", length=" + this.bytes.length
+				+ ", offsets=" + Arrays.toString(this.offsets) + ", sizes=" + Arrays.toString(this.sizes) + "]";
+	}
+}
@@ -231,7 +231,15 @@ public class Cpsr extends UnicornRegister {
 	}
 
 	public String toString() {
-		return (this.n() ? "N" : "n") + (this.z() ? "Z" : "z") + (this.c() ? "C" : "c") + (this.v() ? "V" : "v");
+		return Cpsr.toString(this.getValue());
+	}
+
+	/**
+	 * Format the flags of a CPSR value, upper case when set
+	 */
+	public static String toString(int cpsr) {
+		return ((cpsr & 0x80000000) != 0 ? "N" : "n") + ((cpsr & 0x40000000) != 0 ? "Z" : "z")
+				+ ((cpsr & 0x20000000) != 0 ? "C" : "c") + ((cpsr & 0x10000000) != 0 ? "V" : "v");
 	}
 	
 	private static int booleanToInt(boolean bool) {
@@ -8,25 +8,65 @@
 
 package projetarm_v2.simulator.core;
 
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
 
-import org.reflections.Reflections;
-
+import projetarm_v2.simulator.core.io.IOTimer;
+import projetarm_v2.simulator.core.io.PORTManager;
 import projetarm_v2.simulator.core.routines.CpuRoutine;
 import projetarm_v2.simulator.core.syscalls.SVCHandler;
+import projetarm_v2.simulator.utils.ServiceIndex;
 import unicorn.*;
 
 public class Cpu {
 	public static final int DEFAULT_STARTING_ADDRESS = 0x1000;
+	public static final int IRQ_VECTOR = 0x18;
+
+	private static final int CPSR_MODE = 0x1F;
+	private static final int CPSR_T = 1 << 5;
+	private static final int CPSR_I = 1 << 7;
+	private static final int MODE_IRQ = 0x12;
+	private static final int WFI_INSTRUCTION = 0x0320F003; // Without the condition
+
+	private static final Field UNICORN_ENGINE;
+	private static final Method REGISTER_HOOK;
+
+	static {
+		Field engine = null;
+		Method registerHook = null;
+
+		try {
+			engine = Unicorn.class.getDeclaredField("eng");
+			engine.setAccessible(true);
+			registerHook = Unicorn.class.getDeclaredMethod("registerHook", long.class, int.class, long.class, long.class);
+			registerHook.setAccessible(true);
+		} catch (ReflectiveOperationException | SecurityException e) {
+			// Only needed in turbo mode, hookAddress() reports it
+		}
+
+		UNICORN_ENGINE = engine;
+		REGISTER_HOOK = registerHook;
+	}
 
 	private final Ram ram;
 	private final Unicorn u;
 	private final Register[] registers;
 	private AtomicBoolean running;
 	private Cpsr cpsr;
+	private Register spsr;
 	private Register pc;
 	private Register currentAddress;
 	private AtomicBoolean hasFinished;
@@ -34,16 +74,79 @@ public class Cpu {
 	private long endAddress;
 	private AtomicLong stepByStepRunning;
 	private SVCHandler svcHandler;
+	private final long ramSize;
+	private final MemoryMode memoryMode;
+	private long lastSynchronizedBytes;
+	private long totalSynchronizedBytes;
+	private final boolean turbo;
+	private final Register unicornPc;
+	/**
+	 * The addresses with a native code hook, which the binding can't remove: they last as long as the Unicorn instance
+	 */
+	private final Set<Long> hookedAddresses;
+	/**
+	 * The hooked addresses where the loaded program stops in turbo mode, rebuilt before every run
+	 */
+	private final Set<Long> stopAddresses;
+	/**
+	 * Replaced on every change and never modified once published, so the instruction hook reads it without locking
+	 */
+	private volatile BitSet breakpoints;
+	private final Object breakpointsLock;
+	private long breakpointResumeAddress;
+	private AtomicBoolean stoppedOnBreakpoint;
+	private AtomicBoolean interrupted;
+	private AtomicBoolean halted;
+	private UnicornException lastFault;
+	private final List<Long> routineAddresses;
+	private final long baselineContext;
+	private volatile long instructionCount;
+	private long instructionLimit;
+	private boolean reachedLimit;
+	private boolean pausedAtLimit;
+	private boolean ignoreBreakpoints;
+	private volatile boolean replaying;
+	private volatile InputLog inputLog;
+	private volatile VirtualClock clock;
+	private final IOTimer timer;
 	
 	
-	private static final byte[] jumpBackInstruction = Assembler.getInstance().assemble("bx lr", 0L);
+	private static final byte[] jumpBackInstruction = { 0x1e, (byte) 0xff, 0x2f, (byte) 0xe1 }; // bx lr
 
 	public Cpu() {
 		this(new Ram(), Cpu.DEFAULT_STARTING_ADDRESS, 2 * 1024 * 1024);
 	}
 
 	public Cpu(Ram ram, long startingAddress, int ramSize) {
+		this(ram, startingAddress, ramSize, MemoryMode.SHADOWED);
+	}
+
+	public Cpu(Ram ram, long startingAddress, int ramSize, MemoryMode memoryMode) {
+		this(ram, startingAddress, ramSize, memoryMode, false);
+	}
+
+	/**
+	 * @param turbo If true, no hook is called on every instruction: only the routines and the stop words
+	 *              (the zero words of the program) are hooked and the current address is read back from
+	 *              the PC once Unicorn stops. This is best combined with {@link MemoryMode#UNICORN}.
+	 */
+	public Cpu(Ram ram, long startingAddress, int ramSize, MemoryMode memoryMode, boolean turbo) {
 		this.ram = ram;
+		this.turbo = turbo;
+		this.hookedAddresses = new HashSet<>();
+		this.stopAddresses = new HashSet<>();
+		this.routineAddresses = new ArrayList<>();
+		this.breakpoints = new BitSet();
+		this.breakpointsLock = new Object();
+		this.breakpointResumeAddress = -1;
+		this.stoppedOnBreakpoint = new AtomicBoolean(false);
+		this.interrupted = new AtomicBoolean(false);
+		this.halted = new AtomicBoolean(false);
+		this.instructionLimit = Long.MAX_VALUE;
+		this.clock = new VirtualClock(this::getInstructionCount);
+		this.timer = new IOTimer(this.clock, !turbo);
+		this.ramSize = ramSize;
+		this.memoryMode = memoryMode;
 		this.startingAddress = startingAddress;
 		this.endAddress = 0;
 		this.stepByStepRunning = new AtomicLong(0);
@@ -69,34 +172,111 @@ public class Cpu {
 		// We set our internal PC's value to the address of the instruction currently
 		// being executed
 		this.pc = this.registers[15];
+		this.unicornPc = new UnicornRegister(u, ArmConst.UC_ARM_REG_PC);
 
 		this.currentAddress = new SimpleRegister((int)startingAddress); // I use a SimpleRegister instead of a simple field because SimpleRegister is Thread-Safe thanks to the AtomicInteger inside it
 
-		u.mem_map(0, 2*1024*1024L, Unicorn.UC_PROT_ALL);
+		u.mem_map(0, ramSize, Unicorn.UC_PROT_ALL);
 
 		this.cpsr = new Cpsr(u);
+		this.spsr = new UnicornRegister(u, ArmConst.UC_ARM_REG_SPSR);
 
-		u.hook_add(ram.getNewReadHook(), 1, 0, null);
+		if (memoryMode == MemoryMode.UNICORN) {
+			this.attachRam();
 
-		u.hook_add(ram.getNewWriteHook(), 1, 0, null);
+			// Only the I/O ports, which are changed by the UI while the guest runs, still go through the Ram
+			long portsStart = PORTManager.DEFAULT_PORT_ADDRESS & ~Ram.PAGE_MASK;
+			long portsEnd = portsStart + Ram.CHUNK_SIZE;
 
-		u.hook_add(new CPUInstructionHook(this), 1, 0, null);
+			u.hook_add(ram.getNewReadHook(), portsStart, portsEnd - 1, null);
+
+			u.hook_add(ram.getNewWriteHook(), portsStart, portsEnd - 1, null);
+		} else {
+			ram.detach();
+
+			u.hook_add(ram.getNewReadHook(), 1, 0, null);
+
+			u.hook_add(ram.getNewWriteHook(), 1, 0, null);
+		}
+
+		// Called after the Ram's read hook, which already put the value of the port in Unicorn
+		u.hook_add(new PortInputHook(this), PORTManager.DEFAULT_PORT_ADDRESS & ~Ram.PAGE_MASK,
+				(PORTManager.DEFAULT_PORT_ADDRESS | Ram.PAGE_MASK), null);
+		u.hook_add(this.timer.getNewReadHook(), IOTimer.DEFAULT_ADDRESS, IOTimer.DEFAULT_ADDRESS + IOTimer.SIZE - 1, null);
+		u.hook_add(this.timer.getNewWriteHook(), IOTimer.DEFAULT_ADDRESS, IOTimer.DEFAULT_ADDRESS + IOTimer.SIZE - 1, null);
+
+		if (turbo) {
+			// The binding registers a single native code hook, with the range of the first CodeHook added.
+			// The first unmapped address is never executed, the hooked addresses are added by hookAddress()
+			u.hook_add(new TurboHook(this), ramSize, ramSize, null);
+		} else {
+			u.hook_add(new CPUInstructionHook(this), 1, 0, null);
+		}
 		
 		u.hook_add(svcHandler.getSVCCallHandler(), null);
 		
 		this.registerCpuRoutines();
 
+		this.ram.markAllDirty(); // This Unicorn instance has never seen the content of the Ram
 		this.synchronizeUnicornRam();
 		
 		this.cpsr.setZ(false); // Unicorn set Z to true when creating the virtual CPU, we purposely set it back to false for educational purposes
+
+		this.baselineContext = u.context_alloc();
+		u.context_save(this.baselineContext);
 	}
 
-	private void registerCpuRoutines() {
-		Reflections reflections = new Reflections("projetarm_v2.simulator.core.routines");
+	private void attachRam() {
+		long portsStart = PORTManager.DEFAULT_PORT_ADDRESS & ~Ram.PAGE_MASK;
+		this.ram.attach(u, this.ramSize, portsStart, portsStart + Ram.CHUNK_SIZE);
+	}
 
-		Set<Class<? extends CpuRoutine>> routines = reflections.getSubTypesOf(CpuRoutine.class);
-		
-		for (Class<? extends CpuRoutine> routine : routines) {
+	/**
+	 * Put the Cpu back in the state it had once created, keeping the Unicorn instance and its hooks.
+	 * The registers come from the context saved at creation, Unicorn's memory is remapped and the
+	 * routine stubs are written again, so the Ram should be cleared before.
+	 */
+	public void reset() {
+		u.mem_unmap(0, this.ramSize);
+		u.mem_map(0, this.ramSize, Unicorn.UC_PROT_ALL);
+
+		if (this.memoryMode == MemoryMode.UNICORN) {
+			this.attachRam();
+		}
+
+		u.context_restore(this.baselineContext);
+		this.pc.setValue((int)this.startingAddress);
+		this.currentAddress.setValue((int)this.startingAddress);
+		this.endAddress = 0;
+		this.running.set(false);
+		this.hasFinished.set(false);
+		this.stepByStepRunning.set(0);
+		this.stoppedOnBreakpoint.set(false);
+		this.interrupted.set(false);
+		this.halted.set(false);
+		this.lastFault = null;
+		this.instructionCount = 0;
+		this.pausedAtLimit = false;
+		this.stopAddresses.clear(); // The stop words of the previous program are gone
+
+		if (this.inputLog != null) {
+			this.inputLog.clear();
+		}
+		this.clock.reset();
+		this.timer.reset();
+
+		this.svcHandler.reset();
+
+		for (long address : this.routineAddresses) {
+			this.ram.write(address, Cpu.jumpBackInstruction);
+		}
+
+		this.ram.markAllDirty(); // Unicorn's memory is empty again
+		this.synchronizeUnicornRam();
+	}
+
+	private void registerCpuRoutines() {
+		for (Class<? extends CpuRoutine> routine : ServiceIndex.getImplementations(CpuRoutine.class)) {
 			try {
 				if ((boolean) routine.getMethod("shouldBeManuallyAdded").invoke(null)) {
 					continue;
@@ -110,16 +290,195 @@ public class Cpu {
 		Long address = routine.getRoutineAddress();
 		
 		u.hook_add(routine.getNewHook(), address, address, null);
+		if (this.turbo) {
+			this.hookAddress(address);
+		}
+
+		this.ram.write(address, Cpu.jumpBackInstruction);
+		this.routineAddresses.add(address);
+	}
+
+	/**
+	 * Add a native code hook on a single address, every CodeHook is called when it is executed.
+	 * Unicorn's binding only exposes one native hook per type, so the hidden registration method is used.
+	 */
+	private void hookAddress(long address) {
+		if (this.hookedAddresses.contains(address)) {
+			return;
+		}
+		if (REGISTER_HOOK == null) {
+			throw new IllegalStateException("Can't hook 0x" + Long.toHexString(address) + " in turbo mode, Unicorn's binding changed");
+		}
+
+		try {
+			REGISTER_HOOK.invoke(null, UNICORN_ENGINE.getLong(u), UnicornConst.UC_HOOK_CODE, address, address);
+			this.hookedAddresses.add(address);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Can't hook 0x" + Long.toHexString(address) + " in turbo mode", e);
+		}
+	}
+
+	/**
+	 * Hook the zero words of the program, which stop the execution, and the end of the program.
+	 * The stop addresses of the previous run are forgotten, the program may have been changed since.
+	 */
+	private void hookStopWords() {
+		this.stopAddresses.clear();
+
+		long length = Math.max(0, this.endAddress - this.startingAddress) & ~3L;
+		ByteBuffer program = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+		this.ram.read(this.startingAddress, program);
+
+		for (int offset = 0; offset < length; offset += 4) {
+			if (program.getInt(offset) == 0) {
+				this.hookStopAddress(this.startingAddress + offset);
+			}
+		}
+		this.hookStopAddress(this.endAddress);
+	}
+
+	private void hookStopAddress(long address) {
+		this.hookAddress(address);
+		this.stopAddresses.add(address);
+	}
+
+	public boolean isTurbo() {
+		return this.turbo;
+	}
+
+	/**
+	 * Stop the execution before the instruction at the given address is executed
+	 * @param address The address of the instruction, word aligned
+	 */
+	public void addBreakpoint(long address) {
+		synchronized (this.breakpointsLock) {
+			BitSet breakpoints = (BitSet) this.breakpoints.clone();
+			breakpoints.set((int) ((address & 0xFFFFFFFFL) >>> 2));
+			this.breakpoints = breakpoints;
+		}
+		if (this.turbo) {
+			this.hookAddress(address & 0xFFFFFFFFL);
+		}
+	}
 
-		for (int i = 0; i < Cpu.jumpBackInstruction.length; i++) {
-			this.ram.setByte(address + i, Cpu.jumpBackInstruction[i]);
+	public void removeBreakpoint(long address) {
+		synchronized (this.breakpointsLock) {
+			BitSet breakpoints = (BitSet) this.breakpoints.clone();
+			breakpoints.clear((int) ((address & 0xFFFFFFFFL) >>> 2));
+			this.breakpoints = breakpoints;
 		}
 	}
 
+	public boolean hasBreakpoint(long address) {
+		return this.breakpoints.get((int) ((address & 0xFFFFFFFFL) >>> 2));
+	}
+
+	public void clearBreakpoints() {
+		synchronized (this.breakpointsLock) {
+			this.breakpoints = new BitSet();
+		}
+	}
+
+	/**
+	 * @return The addresses of the breakpoints, in ascending order
+	 */
+	public long[] getBreakpoints() {
+		return this.breakpoints.stream().mapToLong(index -> (long) index << 2).toArray();
+	}
+
+	/**
+	 * @return true if the last run or step stopped on a breakpoint
+	 */
+	public boolean hasStoppedOnBreakpoint() {
+		return this.stoppedOnBreakpoint.get();
+	}
+
+	/**
+	 * Called by the code hooks, stops the execution if the instruction is a breakpoint.
+	 * The breakpoint the execution resumes from is ignored once.
+	 * @return true if the execution has been stopped
+	 */
+	private boolean checkBreakpoint(long address) {
+		if (address == this.breakpointResumeAddress) {
+			this.breakpointResumeAddress = -1;
+			return false;
+		}
+
+		if (!this.hasBreakpoint(address)) {
+			return false;
+		}
+
+		System.out.format("[INFO] Breakpoint @ 0x%x%n", address);
+		this.currentAddress.setValue((int)address);
+		this.pc.setValue((int)address + 4);
+		u.emu_stop();
+		this.stoppedOnBreakpoint.set(true);
+		running.set(false);
+		return true;
+	}
+
+	private void prepareBreakpoints(long startAddress) {
+		this.stoppedOnBreakpoint.set(false);
+		// A run paused by runUntil() before a breakpoint hasn't stopped on it yet
+		this.breakpointResumeAddress = this.hasBreakpoint(startAddress) && !this.pausedAtLimit ? startAddress & 0xFFFFFFFFL : -1;
+		this.pausedAtLimit = false;
+	}
+
+	/**
+	 * Push the pages changed from the Java side since the last synchronization to Unicorn
+	 */
 	private void synchronizeUnicornRam() {
-		for (RamChunk chunk : this.ram.getRamChunks()) {
+		this.lastSynchronizedBytes = 0;
+		this.flushRam();
+	}
+
+	private void flushRam() {
+		long synchronizedBytes = 0;
+
+		for (RamChunk chunk : this.ram.takeDirtyChunks()) {
+			if (chunk.startingAddress >= this.ramSize) {
+				continue; // Unicorn has nothing mapped there
+			}
 			u.mem_write(chunk.startingAddress, chunk.getChunk());
+			synchronizedBytes += chunk.getChunk().length;
 		}
+
+		this.lastSynchronizedBytes += synchronizedBytes;
+		this.totalSynchronizedBytes += synchronizedBytes;
+	}
+
+	/**
+	 * Must be called before Java code reads the guest memory while the Cpu is running (routines, syscalls)
+	 */
+	public void enterHostCall() {
+		if (this.memoryMode == MemoryMode.UNICORN) {
+			this.ram.invalidate();
+		}
+	}
+
+	/**
+	 * Must be called once Java code called while the Cpu is running is done, to make its writes visible to the guest
+	 */
+	public void leaveHostCall() {
+		this.flushRam();
+	}
+
+	public MemoryMode getMemoryMode() {
+		return this.memoryMode;
+	}
+
+	/**
+	 * @return The number of bytes pushed to Unicorn during the last run or step
+	 */
+	public long getLastSynchronizedBytes() {
+		return this.lastSynchronizedBytes;
+	}
+
+	/**
+	 * @return The number of bytes pushed to Unicorn since this Cpu was created
+	 */
+	public long getTotalSynchronizedBytes() {
+		return this.totalSynchronizedBytes;
 	}
 
 	public boolean isRunning() {
@@ -128,30 +487,237 @@ public class Cpu {
 
 	// Ou tout d'un coup!
 	public void runAllAtOnce() {
+		if (this.run(0) == StopReason.FAULT) {
+			throw this.lastFault;
+		}
+	}
+
+	/**
+	 * Run until the program stops or the given number of instructions has been executed
+	 * @param maxInstructions The maximum number of instructions to execute, 0 for no limit
+	 * @return Why the execution stopped
+	 */
+	public StopReason run(long maxInstructions) {
+		return this.run(0, maxInstructions);
+	}
+
+	/**
+	 * Run until the program stops or the time slice is over
+	 * @param slice The maximum duration of the run, rounded to the microsecond
+	 * @return Why the execution stopped
+	 */
+	public StopReason run(Duration slice) {
+		return this.run(Math.max(1, slice.toNanos() / 1000), 0);
+	}
+
+	/**
+	 * Run until the program stops or the given number of instructions has been executed since the Cpu was reset.
+	 * Instructions are only counted without turbo, see {@link #getInstructionCount()}.
+	 * @param instructionCount The number of executed instructions where the Cpu stops
+	 * @return Why the execution stopped, {@link StopReason#BUDGET_EXHAUSTED} if the count was reached
+	 */
+	public StopReason runUntil(long instructionCount) {
+		return this.runUntil(instructionCount, 0, false);
+	}
+
+	/**
+	 * Run until the program stops, the given number of instructions has been executed since the Cpu was reset
+	 * or the time slice is over
+	 * @param instructionCount The number of executed instructions where the Cpu stops
+	 * @param slice The maximum duration of the run, rounded to the microsecond
+	 * @return Why the execution stopped, {@link StopReason#BUDGET_EXHAUSTED} if the count or the slice was reached
+	 */
+	public StopReason runUntil(long instructionCount, Duration slice) {
+		return this.runUntil(instructionCount, Math.max(1, slice.toNanos() / 1000), false);
+	}
+
+	/**
+	 * Execute again instructions already executed, from a restored snapshot: the inputs come from the
+	 * input log and the routines which only have an effect outside of the machine are skipped.
+	 * @param instructionCount The number of executed instructions where the Cpu stops
+	 * @param breakpoints true to stop on the breakpoints too
+	 * @return Why the execution stopped, {@link StopReason#BUDGET_EXHAUSTED} if the count was reached
+	 */
+	public StopReason replayUntil(long instructionCount, boolean breakpoints) {
+		this.replaying = true;
+		try {
+			return this.runUntil(instructionCount, 0, !breakpoints);
+		} finally {
+			this.replaying = false;
+		}
+	}
+
+	private StopReason runUntil(long instructionCount, long timeout, boolean ignoreBreakpoints) {
+		if (this.turbo) {
+			throw new IllegalStateException("Instructions are not counted in turbo mode");
+		}
+
+		this.instructionLimit = instructionCount;
+		this.ignoreBreakpoints = ignoreBreakpoints;
+		try {
+			return this.run(timeout, 0);
+		} finally {
+			this.instructionLimit = Long.MAX_VALUE;
+			this.ignoreBreakpoints = false;
+		}
+	}
+
+	private StopReason run(long timeout, long count) {
 		this.synchronizeUnicornRam();
 
 		running.set(true);
 		hasFinished.set(false);
 		this.stepByStepRunning.set(0);
+		this.interrupted.set(false);
+		this.halted.set(false);
+		this.lastFault = null;
+		this.reachedLimit = false;
 		
-		u.emu_start(this.currentAddress.getValue(), this.endAddress+4, 0, 0);
+		if (this.turbo) {
+			this.hookStopWords();
+		}
+		this.prepareBreakpoints(this.currentAddress.getValue());
 
-		if (!hasFinished.get()) {
-			this.currentAddress.setValue(this.currentAddress.getValue() + 4);
+		try {
+			u.emu_start(this.currentAddress.getValue(), this.endAddress+4, timeout, count);
+		} catch (UnicornException e) {
+			this.lastFault = e;
+		} finally {
+			this.enterHostCall();
+		}
+
+		StopReason reason = this.stopReason(timeout != 0 || count != 0);
+
+		switch (reason) {
+			case BREAKPOINT:
+			case STOP_WORD:
+				break; // The hook set the current address
+			case FAULT:
+				if (this.turbo) {
+					this.readBackPc();
+				}
+				break;
+			case BUDGET_EXHAUSTED:
+				if (!this.reachedLimit) {
+					this.readBackPc();
+				} // Otherwise the hook set the current address
+				break;
+			default:
+				if (this.turbo) {
+					this.readBackPc();
+				} else {
+					this.currentAddress.setValue(this.currentAddress.getValue() + 4);
+				}
 		}
 		
 		running.set(false);
-		hasFinished.set(true);
+		hasFinished.set(reason != StopReason.BREAKPOINT && reason != StopReason.BUDGET_EXHAUSTED);
+		this.pausedAtLimit = this.reachedLimit && !this.replaying;
+
+		return reason;
+	}
+
+	private StopReason stopReason(boolean budgeted) {
+		if (this.lastFault != null) {
+			return StopReason.FAULT;
+		}
+		if (this.reachedLimit) {
+			return StopReason.BUDGET_EXHAUSTED;
+		}
+		if (this.stoppedOnBreakpoint.get()) {
+			return StopReason.BREAKPOINT;
+		}
+		if (this.halted.get()) {
+			return StopReason.SVC_HALT;
+		}
+		if (this.hasFinished.get()) {
+			return StopReason.STOP_WORD;
+		}
+		if (this.interrupted.get()) {
+			return StopReason.INTERRUPTED;
+		}
+		if (!budgeted || this.unicornPc.getValue() == (int) (this.endAddress + 4)) {
+			return StopReason.END_OF_PROGRAM;
+		}
+		return StopReason.BUDGET_EXHAUSTED;
+	}
+
+	/**
+	 * @return The exception which stopped the last run, null if it didn't fault
+	 */
+	public UnicornException getLastFault() {
+		return this.lastFault;
 	}
 
 	public Register getRegister(int registerNumber) {
 		return this.registers[registerNumber];
 	}
 
+	/**
+	 * Read every register and the CPSR once
+	 * @return The values of the registers
+	 */
+	public RegisterSnapshot snapshotRegisters() {
+		int[] values = new int[this.registers.length];
+
+		for (int i = 0; i < values.length; i++) {
+			values[i] = this.registers[i].getValue();
+		}
+
+		return new RegisterSnapshot(values, this.cpsr.getValue());
+	}
+
 	public Ram getRam() {
 		return this.ram;
 	}
 
+	/**
+	 * Take the state of the Cpu and of its memory, the Cpu must not be running.
+	 * The memory pages are shared with the Ram until they are written, see {@link Ram#snapshot()}.
+	 * @return The snapshot, to be closed once it isn't needed anymore
+	 */
+	public CpuSnapshot snapshot() {
+		return new CpuSnapshot(this, this.u, this.ram.snapshot(), this.svcHandler.getFileDescriptors().copy(),
+				this.currentAddress.getValue(), this.pc.getValue(), this.endAddress, this.hasFinished.get(),
+				this.stoppedOnBreakpoint.get(), this.interrupted.get(), this.halted.get(), this.lastFault,
+				this.instructionCount, this.clock.getSleptNanos(), this.timer.copy());
+	}
+
+	/**
+	 * Put the Cpu and its memory back in the state of the snapshot, the Cpu must not be running.
+	 * Only the pages which differ from the snapshot are pushed to Unicorn. The breakpoints are kept.
+	 * @param snapshot A snapshot taken from this Cpu
+	 */
+	public void restore(CpuSnapshot snapshot) {
+		if (snapshot.cpu != this) {
+			throw new IllegalArgumentException("The snapshot was taken from another Cpu");
+		}
+
+		snapshot.restoreContext();
+		this.ram.restore(snapshot.ram);
+		this.svcHandler.getFileDescriptors().restore(snapshot.fileDescriptors);
+
+		this.currentAddress.setValue(snapshot.currentAddress);
+		this.pc.setValue(snapshot.pc);
+		this.endAddress = snapshot.endAddress;
+		this.hasFinished.set(snapshot.hasFinished);
+		this.stoppedOnBreakpoint.set(snapshot.stoppedOnBreakpoint);
+		this.interrupted.set(snapshot.interrupted);
+		this.halted.set(snapshot.halted);
+		this.lastFault = snapshot.lastFault;
+		this.stepByStepRunning.set(0);
+		this.instructionCount = snapshot.instructionCount;
+		this.clock.setSleptNanos(snapshot.sleptNanos);
+		this.timer.restore(snapshot.timer);
+		this.pausedAtLimit = false;
+
+		if (this.inputLog != null) {
+			this.inputLog.rewind(snapshot.instructionCount);
+		}
+
+		this.synchronizeUnicornRam();
+	}
+
 	public void setEndAddress(long endAddress) {
 		this.endAddress = endAddress;
 	}
@@ -177,15 +743,66 @@ public class Cpu {
 		
 		int startAddress = this.currentAddress.getValue();
 		
-		u.emu_start(startAddress, (long)startAddress+4, 0, 0);
+		if (this.turbo) {
+			this.hookStopWords();
+		}
+		this.prepareBreakpoints(startAddress);
+
+		try {
+			u.emu_start(startAddress, (long)startAddress+4, 0, this.turbo ? 1 : 0);
+		} finally {
+			this.enterHostCall();
+		}
 		
-		if (startAddress == this.currentAddress.getValue() && !hasFinished.get()) {
+		if (hasFinished.get() || this.stoppedOnBreakpoint.get()) {
+			// The hook already set the current address
+		} else if (this.turbo) {
+			this.readBackPc();
+		} else if (startAddress == this.currentAddress.getValue()) {
 			this.currentAddress.setValue(this.currentAddress.getValue() + 4);
 		}
 
 		running.set(false);
 	}
 	
+	/**
+	 * Without the per-instruction hook, the current address is only known once Unicorn has stopped
+	 */
+	private void readBackPc() {
+		int address = this.unicornPc.getValue();
+		this.currentAddress.setValue(address);
+		this.pc.setValue(address);
+	}
+
+	/**
+	 * Called only on the hooked addresses in turbo mode, stops the execution on a breakpoint or a zero word
+	 */
+	private class TurboHook implements CodeHook {
+		private final Cpu cpu;
+
+		public TurboHook(Cpu cpu) {
+			this.cpu = cpu;
+		}
+
+		public void hook(Unicorn u, long address, int size, Object user_data) {
+			if (this.cpu.checkBreakpoint(address) || !this.cpu.stopAddresses.contains(address)) {
+				return; // The routines and the stop words of a previous program are hooked too
+			}
+
+			// Unicorn holds the up-to-date memory whatever the memory mode
+			byte[] word = u.mem_read(address, 4);
+
+			if ((word[0] | word[1] | word[2] | word[3]) == 0) {
+				System.out.format(">>> Instruction @ 0x%x skipped%n", address);
+				this.cpu.currentAddress.setValue((int)address);
+				this.cpu.pc.setValue((int)address + 4);
+				u.emu_stop();
+				this.cpu.hasFinished.set(true);
+				running.set(false);
+			}
+		}
+	}
+
 	private class CPUInstructionHook implements CodeHook {
 		private final Cpu cpu;
 
@@ -199,29 +816,244 @@ public class Cpu {
 			
 			//System.out.format(">>> Instruction @ 0x%x is being executed\n", this.cpu.pc.getValue());
 
+			if (this.cpu.instructionCount >= this.cpu.instructionLimit) {
+				u.emu_stop();
+				this.cpu.reachedLimit = true;
+				running.set(false);
+				return;
+			}
+
+			if (this.cpu.stepByStepRunning.get() == 0 && !this.cpu.ignoreBreakpoints && this.cpu.checkBreakpoint(address)) {
+				return;
+			}
+
+			boolean stopped = false;
+
 			if (this.cpu.stepByStepRunning.get() == 1) {
 				this.cpu.stepByStepRunning.set(2);
 			} else if (this.cpu.stepByStepRunning.get() == 2) {
 				u.emu_stop();
 				running.set(false);
+				stopped = true;
 			}
 			
-			if (this.cpu.ram.getValue(address) == 0) {
+			int instruction = this.cpu.ram.getValue(address);
+
+			if (instruction == 0) {
 				System.out.format(">>> Instruction @ 0x%x skipped%n", this.cpu.currentAddress.getValue());
 				u.emu_stop();
 				this.cpu.hasFinished.set(true);
 				running.set(false);
+				stopped = true;
+			}
+
+			if (stopped) {
+				return;
 			}
+
+			if (this.cpu.timer.isInterrupting() && this.cpu.enterIrq(address)) {
+				return; // The instruction is executed once the handler returns
+			}
+
+			// The condition of wfi isn't checked
+			if ((instruction & 0x0FFFFFFF) == WFI_INSTRUCTION && !this.cpu.idle(address)) {
+				return;
+			}
+
+			this.cpu.instructionCount++;
+		}
+
+	}
+
+	/**
+	 * Enter the IRQ exception instead of executing the instruction at the given address, if the CPSR allows it
+	 * @return true if the exception has been entered
+	 */
+	private boolean enterIrq(long address) {
+		int cpsr = this.cpsr.getValue();
+
+		if ((cpsr & CPSR_I) != 0) {
+			return false;
+		}
+
+		// Unicorn switches to the banked registers of the IRQ mode
+		this.cpsr.setValue((cpsr & ~(CPSR_MODE | CPSR_T)) | MODE_IRQ | CPSR_I);
+		this.spsr.setValue(cpsr);
+		this.registers[14].setValue((int) address + 4); // The handler returns with subs pc, lr, #4
+
+		this.currentAddress.setValue(IRQ_VECTOR);
+		this.pc.setValue(IRQ_VECTOR + 4);
+		this.unicornPc.setValue(IRQ_VECTOR); // Unicorn resumes there once the hooks return
+		return true;
+	}
+
+	/**
+	 * Execute wfi: Unicorn can't wait for an interrupt, so the time passes up to the next expiry of the timer
+	 * and the execution goes on after the instruction, where the IRQ is taken.
+	 * @return false if the Cpu has been interrupted while waiting
+	 */
+	private boolean idle(long address) {
+		long wakeUp = this.timer.getNextExpiry();
+
+		if (this.timer.isInterrupting()) {
+			// A pending interrupt wakes wfi up at once, even masked by the I bit
+		} else if (wakeUp < 0) {
+			System.out.println("[WARNING] wfi while the timer is stopped, nothing will interrupt the program");
+		} else if (this.isReplayingInputs()) {
+			this.clock.skipUntil(wakeUp);
+		} else {
+			this.clock.idleUntil(wakeUp);
+		}
+
+		if (this.interrupted.get()) {
+			this.u.emu_stop(); // Writing the PC would resume the execution
+			return false;
 		}
 
+		this.unicornPc.setValue((int) address + 4);
+		return true;
 	}
 
 	public void interruptMe() {
+		this.interrupted.set(true);
+		this.clock.wakeUp();
 		this.u.emu_stop();
 		running.set(false);
 		hasFinished.set(false);
 	}
 
+	/**
+	 * Stop the program for good, called by the exit SVC
+	 */
+	public void halt() {
+		this.halted.set(true);
+		this.u.emu_stop();
+		running.set(false);
+	}
+
+	/**
+	 * @return The number of instructions executed since the Cpu was reset, always 0 in turbo mode
+	 */
+	public long getInstructionCount() {
+		return this.instructionCount;
+	}
+
+	/**
+	 * @return true while instructions already executed are executed again, see {@link #replayUntil}
+	 */
+	public boolean isReplaying() {
+		return this.replaying;
+	}
+
+	/**
+	 * @return true if the next inputs of the program come from its log, so they don't need to be waited for
+	 */
+	public boolean isReplayingInputs() {
+		InputLog log = this.inputLog;
+		return this.replaying || (log != null && log.isReplaying());
+	}
+
+	/**
+	 * @return The clock giving the time to the program
+	 */
+	public VirtualClock getClock() {
+		return this.clock;
+	}
+
+	/**
+	 * @param clock The clock giving the time to the program, for example shared with the I/O components
+	 */
+	public void setClock(VirtualClock clock) {
+		this.clock = clock;
+		this.timer.setClock(clock);
+	}
+
+	/**
+	 * @param inputLog The log of the inputs read by the program, null to read them without logging them
+	 */
+	public void setInputLog(InputLog inputLog) {
+		this.inputLog = inputLog;
+	}
+
+	public InputLog getInputLog() {
+		return this.inputLog;
+	}
+
+	/**
+	 * Read an input coming from outside of the machine, through the input log if there is one
+	 * @param kind The kind of the input
+	 * @param live Reads the input
+	 * @return The input
+	 */
+	public int readInput(InputKind kind, IntSupplier live) {
+		InputLog log = this.inputLog;
+		return log == null ? live.getAsInt() : log.read(kind, this.instructionCount, live);
+	}
+
+	/**
+	 * Read an input coming from outside of the machine, through the input log if there is one
+	 * @param kind The kind of the input
+	 * @param live Reads the input
+	 * @return The input
+	 */
+	public byte[] readInputBytes(InputKind kind, Supplier<byte[]> live) {
+		InputLog log = this.inputLog;
+		return log == null ? live.get() : log.readBytes(kind, this.instructionCount, live);
+	}
+
+	/**
+	 * Logs the values read by the guest from the I/O ports, and gives them back when replaying
+	 */
+	private class PortInputHook implements ReadHook {
+		private final Cpu cpu;
+
+		public PortInputHook(Cpu cpu) {
+			this.cpu = cpu;
+		}
+
+		public void hook(Unicorn u, long address, int size, Object user_data) {
+			InputLog log = this.cpu.inputLog;
+
+			// Every read hook gets the reads of the first one's range
+			if (log == null || ((address ^ PORTManager.DEFAULT_PORT_ADDRESS) & ~Ram.PAGE_MASK) != 0 || size > 4
+					|| IOTimer.contains(address)) {
+				return;
+			}
+
+			int value = log.readPort(address, size, this.cpu.instructionCount, () -> {
+				int read = 0;
+				for (int i = 0; i < size; i++) {
+					read |= (this.cpu.ram.getByte(address + i) & 0xFF) << (8 * i);
+				}
+				return read;
+			});
+
+			byte[] bytes = new byte[size];
+			for (int i = 0; i < size; i++) {
+				bytes[i] = (byte) (value >> (8 * i));
+			}
+			u.mem_write(address, bytes);
+		}
+	}
+
+	/**
+	 * @return The address of the instruction being executed, usable from an interrupt hook whatever the mode
+	 */
+	public long getExecutingAddress() {
+		if (this.turbo) {
+			// The current address isn't tracked, Unicorn's PC already points to the next instruction
+			return (this.unicornPc.getValue() - 4) & 0xFFFFFFFFL;
+		}
+		return this.getCurrentAddress();
+	}
+
+	/**
+	 * @return The timer mapped at {@link IOTimer#DEFAULT_ADDRESS}, its interrupts are not delivered in turbo mode
+	 */
+	public IOTimer getTimer() {
+		return this.timer;
+	}
+
 	public Cpsr getCPSR() {
 		return this.cpsr;
 	}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.core;
+
+import projetarm_v2.simulator.core.io.IOTimer;
+import projetarm_v2.simulator.core.syscalls.io.FileDescriptors;
+import unicorn.Unicorn;
+import unicorn.UnicornException;
+
+/**
+ * The state of a Cpu at a given time, see {@link Cpu#snapshot()}: Unicorn's
+ * registers, the execution state kept on the Java side, the memory and the
+ * files opened by the program.
+ *
+ * Unicorn's registers are held in a native context, which is freed by
+ * {@link #close()}.
+ */
+public final class CpuSnapshot implements AutoCloseable {
+	final Cpu cpu;
+	private final Unicorn u;
+	private long context;
+
+	final RamSnapshot ram;
+	final FileDescriptors fileDescriptors;
+	final int currentAddress;
+	final int pc;
+	final long endAddress;
+	final boolean hasFinished;
+	final boolean stoppedOnBreakpoint;
+	final boolean interrupted;
+	final boolean halted;
+	final UnicornException lastFault;
+	final long instructionCount;
+	final long sleptNanos;
+	final IOTimer timer;
+
+	CpuSnapshot(Cpu cpu, Unicorn u, RamSnapshot ram, FileDescriptors fileDescriptors, int currentAddress, int pc,
+			long endAddress, boolean hasFinished, boolean stoppedOnBreakpoint, boolean interrupted, boolean halted,
+			UnicornException lastFault, long instructionCount, long sleptNanos, IOTimer timer) {
+		this.cpu = cpu;
+		this.u = u;
+		this.context = u.context_alloc();
+		u.context_save(this.context);
+
+		this.ram = ram;
+		this.fileDescriptors = fileDescriptors;
+		this.currentAddress = currentAddress;
+		this.pc = pc;
+		this.endAddress = endAddress;
+		this.hasFinished = hasFinished;
+		this.stoppedOnBreakpoint = stoppedOnBreakpoint;
+		this.interrupted = interrupted;
+		this.halted = halted;
+		this.lastFault = lastFault;
+		this.instructionCount = instructionCount;
+		this.sleptNanos = sleptNanos;
+		this.timer = timer;
+	}
+
+	synchronized void restoreContext() {
+		if (this.context == 0) {
+			throw new IllegalStateException("The snapshot has been closed");
+		}
+		this.u.context_restore(this.context);
+	}
+
+	/**
+	 * @return The address of the next instruction to execute
+	 */
+	public long getCurrentAddress() {
+		return this.currentAddress;
+	}
+
+	/**
+	 * @return The number of instructions executed when the snapshot was taken
+	 */
+	public long getInstructionCount() {
+		return this.instructionCount;
+	}
+
+	public RamSnapshot getRam() {
+		return this.ram;
+	}
+
+	/**
+	 * Free Unicorn's context, the snapshot can't be restored anymore
+	 */
+	@Override
+	public synchronized void close() {
+		if (this.context != 0) {
+			this.u.free(this.context);
+			this.context = 0;
+		}
+	}
+}
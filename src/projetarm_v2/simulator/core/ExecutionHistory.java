@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.core;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lets the Cpu go back in time.
+ *
+ * A snapshot of the Cpu is taken every few instructions while it runs and the
+ * inputs read by the program are logged. Going back to an earlier instruction
+ * restores the closest snapshot before it and executes the program again up
+ * to the instruction, with the inputs of the log.
+ *
+ * When there are too many snapshots, every other one is dropped and the
+ * interval between them doubles, so the whole execution stays reachable.
+ * Only available without turbo, where every instruction is counted.
+ *
+ * Recording slows the execution down and holds memory, it should only be
+ * started when going back may be needed.
+ */
+public class ExecutionHistory {
+	public static final long DEFAULT_INTERVAL = 10000;
+	public static final int DEFAULT_MAX_CHECKPOINTS = 128;
+
+	private final Cpu cpu;
+	private final List<CpuSnapshot> checkpoints;
+	private final int maxCheckpoints;
+	private final long initialInterval;
+	private long interval;
+	private final AtomicBoolean interrupted;
+
+	public ExecutionHistory(Cpu cpu) {
+		this(cpu, DEFAULT_INTERVAL, DEFAULT_MAX_CHECKPOINTS);
+	}
+
+	/**
+	 * @param cpu The Cpu, without turbo
+	 * @param interval The number of instructions between two snapshots
+	 * @param maxCheckpoints The number of snapshots kept, at least 2
+	 */
+	public ExecutionHistory(Cpu cpu, long interval, int maxCheckpoints) {
+		if (cpu.isTurbo()) {
+			throw new IllegalArgumentException("Instructions are not counted in turbo mode");
+		}
+
+		this.cpu = cpu;
+		this.checkpoints = new ArrayList<>();
+		this.maxCheckpoints = Math.max(2, maxCheckpoints);
+		this.initialInterval = interval;
+		this.interval = interval;
+		this.interrupted = new AtomicBoolean(false);
+	}
+
+	/**
+	 * Start recording from the current state of the Cpu, the previous history is forgotten
+	 */
+	public void start() {
+		this.clear();
+
+		if (this.cpu.getInputLog() == null) {
+			this.cpu.setInputLog(new InputLog());
+		}
+		// The inputs logged after this state were read by an execution which is forgotten
+		this.cpu.getInputLog().rewind(this.cpu.getInstructionCount());
+		this.cpu.getInputLog().truncate();
+
+		this.interval = this.initialInterval;
+		this.checkpoints.add(this.cpu.snapshot());
+	}
+
+	/**
+	 * Forget every snapshot
+	 */
+	public void clear() {
+		for (CpuSnapshot checkpoint : this.checkpoints) {
+			checkpoint.close();
+		}
+		this.checkpoints.clear();
+	}
+
+	/**
+	 * @return true if the history has been started
+	 */
+	public boolean isRecording() {
+		return !this.checkpoints.isEmpty();
+	}
+
+	/**
+	 * @return The number of instructions executed when the oldest reachable state was recorded
+	 */
+	public long getFirstInstructionCount() {
+		return this.checkpoints.get(0).getInstructionCount();
+	}
+
+	/**
+	 * Run the Cpu until it stops, taking snapshots on the way
+	 * @return Why the execution stopped, never {@link StopReason#BUDGET_EXHAUSTED}
+	 */
+	public StopReason run() {
+		StopReason reason = this.run(0, null);
+		return reason == StopReason.BUDGET_EXHAUSTED ? StopReason.INTERRUPTED : reason;
+	}
+
+	/**
+	 * Run the Cpu until it stops or its budget runs out, taking snapshots on the way
+	 * @param maxInstructions The maximum number of instructions to execute, 0 for no limit
+	 * @param slice The maximum duration of the run, null for no limit
+	 * @return Why the execution stopped
+	 */
+	public StopReason run(long maxInstructions, Duration slice) {
+		this.interrupted.set(false);
+		long limit = maxInstructions == 0 ? Long.MAX_VALUE : this.cpu.getInstructionCount() + maxInstructions;
+		long deadline = slice == null ? 0 : System.nanoTime() + slice.toNanos();
+		StopReason reason;
+
+		do {
+			long next = Math.min(limit, this.last().getInstructionCount() + this.interval);
+
+			if (slice == null) {
+				reason = this.cpu.runUntil(next);
+			} else {
+				long left = deadline - System.nanoTime();
+				reason = left <= 0 ? StopReason.BUDGET_EXHAUSTED : this.cpu.runUntil(next, Duration.ofNanos(left));
+			}
+
+			if (reason == StopReason.BUDGET_EXHAUSTED) {
+				this.stepped();
+			}
+		} while (reason == StopReason.BUDGET_EXHAUSTED && !this.interrupted.get() && this.cpu.getInstructionCount() < limit
+				&& (slice == null || System.nanoTime() < deadline));
+
+		if (reason == StopReason.BUDGET_EXHAUSTED && this.interrupted.get()) {
+			return StopReason.INTERRUPTED;
+		}
+		return reason;
+	}
+
+	/**
+	 * Stop {@link #run()}, even if the Cpu is between two runs
+	 */
+	public void interrupt() {
+		this.interrupted.set(true);
+		this.cpu.interruptMe();
+	}
+
+	/**
+	 * To be called once the Cpu executed an instruction out of {@link #run()}, takes a snapshot if it is time to
+	 */
+	public void stepped() {
+		if (this.cpu.getInstructionCount() >= this.last().getInstructionCount() + this.interval) {
+			this.checkpoint();
+		}
+	}
+
+	/**
+	 * Go back before the last executed instruction
+	 * @return false if there is no instruction before
+	 */
+	public boolean stepBack() {
+		long count = this.cpu.getInstructionCount();
+
+		if (count <= this.getFirstInstructionCount()) {
+			return false;
+		}
+
+		this.goTo(count - 1);
+		return true;
+	}
+
+	/**
+	 * Go back to the last breakpoint reached before the current instruction, or to the oldest reachable state
+	 * @return true if a breakpoint has been found
+	 */
+	public boolean reverseContinue() {
+		long end = this.cpu.getInstructionCount();
+
+		for (int i = this.checkpoints.size() - 1; i >= 0; i--) {
+			CpuSnapshot checkpoint = this.checkpoints.get(i);
+
+			if (checkpoint.getInstructionCount() >= end) {
+				continue;
+			}
+
+			long hit = this.lastBreakpoint(checkpoint, end);
+
+			if (hit >= 0) {
+				this.goTo(hit);
+				return true;
+			}
+
+			end = checkpoint.getInstructionCount();
+		}
+
+		this.goTo(this.getFirstInstructionCount());
+		return false;
+	}
+
+	/**
+	 * Put the Cpu in the state it had once the given number of instructions were executed
+	 * @param instructionCount A number of instructions between the oldest reachable state and the current one
+	 */
+	public void goTo(long instructionCount) {
+		CpuSnapshot checkpoint = this.last();
+
+		for (int i = this.checkpoints.size() - 1; checkpoint.getInstructionCount() > instructionCount; i--) {
+			if (i == 0) {
+				throw new IllegalArgumentException("The instruction " + instructionCount + " is out of the history");
+			}
+			checkpoint = this.checkpoints.get(i - 1);
+		}
+
+		this.cpu.restore(checkpoint);
+
+		if (checkpoint.getInstructionCount() < instructionCount) {
+			this.cpu.replayUntil(instructionCount, false);
+		}
+
+		// The snapshots after this point may not be taken again if the state is changed
+		while (this.last().getInstructionCount() > instructionCount) {
+			this.checkpoints.remove(this.checkpoints.size() - 1).close();
+		}
+	}
+
+	/**
+	 * @return The number of instructions executed before the last breakpoint between the snapshot and end, or -1
+	 */
+	private long lastBreakpoint(CpuSnapshot checkpoint, long end) {
+		this.cpu.restore(checkpoint);
+
+		// The execution resumes from a breakpoint without stopping on it
+		long hit = this.cpu.hasBreakpoint(this.cpu.getCurrentAddress()) ? checkpoint.getInstructionCount() : -1;
+
+		while (this.cpu.replayUntil(end, true) == StopReason.BREAKPOINT) {
+			hit = this.cpu.getInstructionCount();
+		}
+
+		return hit;
+	}
+
+	private CpuSnapshot last() {
+		return this.checkpoints.get(this.checkpoints.size() - 1);
+	}
+
+	private void checkpoint() {
+		if (this.last().getInstructionCount() == this.cpu.getInstructionCount()) {
+			return;
+		}
+
+		this.checkpoints.add(this.cpu.snapshot());
+
+		if (this.checkpoints.size() > this.maxCheckpoints) {
+			// Keep the first snapshot, which is the oldest reachable state
+			for (int i = this.checkpoints.size() - 2; i > 0; i -= 2) {
+				this.checkpoints.remove(i).close();
+			}
+			this.interval *= 2;
+		}
+	}
+}
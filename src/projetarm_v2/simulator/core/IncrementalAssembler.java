@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Assembles a program which is edited a few statements at a time.
+ *
+ * The last listing is kept with its statements. When only statements which
+ * define no label, use no literal pool and keep their size are changed, only
+ * they are re-encoded: the labels keep their addresses so no other statement
+ * has to be encoded again. Any other change assembles the whole program.
+ */
+public class IncrementalAssembler {
+
+	private static final Pattern labelPattern = Pattern.compile("^\\s*([a-zA-Z_.$][\\w.$]*)\\s*:");
+
+	/**
+	 * Directives which only emit data, any other directive may move or redefine something
+	 */
+	private static final List<String> dataDirectives = Arrays.asList(".word", ".hword", ".short", ".byte", ".int",
+			".long", ".ascii", ".asciz", ".string", ".space", ".skip", ".zero", ".fill");
+
+	/**
+	 * Directives changing how the following statements are encoded, kept when re-encoding
+	 */
+	private static final List<String> modeDirectives = Arrays.asList(".thumb", ".arm", ".code", ".syntax", ".set");
+
+	private final Assembler assembler;
+
+	private List<String> statements;
+	private AssemblyListing listing;
+	private int[] patchedStatements;
+
+	public IncrementalAssembler(Assembler assembler) {
+		this.assembler = assembler;
+	}
+
+	/**
+	 * @param statements The statements of the program, as produced by the Preprocessor
+	 * @param startingAddress The address of the first statement
+	 * @return The listing of the whole program
+	 */
+	public AssemblyListing assemble(List<String> statements, long startingAddress) {
+		statements = new ArrayList<>(statements);
+		AssemblyListing patched = this.patch(statements, startingAddress);
+
+		if (patched == null) {
+			this.patchedStatements = null;
+			patched = this.assembler.assembleListing(statements, startingAddress);
+		}
+
+		this.statements = statements;
+		this.listing = patched;
+		return patched;
+	}
+
+	/**
+	 * @return The statements re-encoded by the last assembly, or null if the whole program was assembled
+	 */
+	public int[] getPatchedStatements() {
+		return this.patchedStatements;
+	}
+
+	/**
+	 * Forget the last program, the next one is assembled entirely
+	 */
+	public void reset() {
+		this.statements = null;
+		this.listing = null;
+		this.patchedStatements = null;
+	}
+
+	private AssemblyListing patch(List<String> statements, long startingAddress) {
+		if (this.listing == null || this.listing.getStartingAddress() != startingAddress
+				|| this.statements.size() != statements.size()) {
+			return null;
+		}
+
+		List<Integer> changed = new ArrayList<>();
+
+		for (int i = 0; i < statements.size(); i++) {
+			if (!statements.get(i).equals(this.statements.get(i))) {
+				if (!isPatchable(this.statements.get(i)) || !isPatchable(statements.get(i))) {
+					return null;
+				}
+				changed.add(i);
+			}
+		}
+
+		this.patchedStatements = changed.stream().mapToInt(Integer::intValue).toArray();
+
+		if (changed.isEmpty()) {
+			return this.listing;
+		}
+
+		// The changed statements are assembled at their offsets, with the labels at theirs
+		List<String> skeleton = new ArrayList<>();
+		int[] positions = new int[changed.size()];
+		int next = 0;
+		int offset = 0;
+
+		for (int i = 0; i < statements.size(); i++) {
+			String statement = statements.get(i);
+			String kept;
+
+			if (next < positions.length && changed.get(next) == i) {
+				positions[next++] = skeleton.size() + 1;
+				kept = statement;
+			} else {
+				Matcher matcher = labelPattern.matcher(statement);
+				if (matcher.find()) {
+					kept = matcher.group(1) + ":";
+				} else if (modeDirectives.contains(directive(statement))) {
+					kept = statement;
+				} else {
+					continue;
+				}
+			}
+
+			int target = this.listing.getOffset(i);
+			skeleton.add(target > offset ? ".org " + target : "");
+			skeleton.add(kept);
+			offset = Math.max(offset, target);
+		}
+
+		AssemblyListing encoded;
+		try {
+			encoded = this.assembler.assembleListing(skeleton, startingAddress, false);
+		} catch (InvalidAssemblyException e) {
+			return null; // The whole program is assembled, which reports the error with its line
+		}
+
+		byte[] bytes = this.listing.getBytes().clone();
+
+		for (int i = 0; i < positions.length; i++) {
+			int statement = changed.get(i);
+			int size = this.listing.getSize(statement);
+
+			if (encoded.getSize(positions[i]) != size || encoded.getOffset(positions[i]) != this.listing.getOffset(statement)) {
+				return null;
+			}
+
+			System.arraycopy(encoded.getBytes(), encoded.getOffset(positions[i]), bytes, this.listing.getOffset(statement), size);
+		}
+
+		int[] offsets = new int[statements.size()];
+		int[] sizes = new int[statements.size()];
+
+		for (int i = 0; i < statements.size(); i++) {
+			offsets[i] = this.listing.getOffset(i);
+			sizes[i] = this.listing.getSize(i);
+		}
+
+		return new AssemblyListing(startingAddress, bytes, offsets, sizes);
+	}
+
+	private static boolean isPatchable(String statement) {
+		if (labelPattern.matcher(statement).find() || statement.contains("=")) {
+			return false;
+		}
+
+		String directive = directive(statement);
+		return directive.isEmpty() || dataDirectives.contains(directive);
+	}
+
+	/**
+	 * @return The directive of the statement in lower case, or an empty string if it is not a directive
+	 */
+	private static String directive(String statement) {
+		String trimmed = statement.trim();
+
+		if (!trimmed.startsWith(".")) {
+			return "";
+		}
+
+		int end = 1;
+		while (end < trimmed.length() && !Character.isWhitespace(trimmed.charAt(end))) {
+			end++;
+		}
+		return trimmed.substring(0, end).toLowerCase();
+	}
+}
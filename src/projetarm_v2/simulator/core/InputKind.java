@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.core;
+
+/**
+ * The inputs which come from outside of the simulated machine, see {@link InputLog}.
+ */
+public enum InputKind {
+	/**
+	 * A number given by the random routine
+	 */
+	RANDOM,
+
+	/**
+	 * The time given by the time SVC
+	 */
+	TIME,
+
+	/**
+	 * A character read from the console
+	 */
+	CONSOLE_CHAR,
+
+	/**
+	 * A line read from the console
+	 */
+	CONSOLE_STRING,
+
+	/**
+	 * The content of a file read by a routine, null if it couldn't be read
+	 */
+	FILE,
+
+	/**
+	 * A value read by the guest from an I/O port, only logged when it changes
+	 */
+	PORT
+}
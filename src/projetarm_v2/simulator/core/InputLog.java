@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * The external inputs read by the program, with the number of instructions
+ * executed when each one was read.
+ *
+ * While the end of the log isn't reached, the inputs are given back from the
+ * log instead of being read again, so re-executing the program from a
+ * checkpoint reads exactly what it read the first time. Once the end is
+ * reached the inputs are read and appended to the log.
+ *
+ * I/O ports are read very often, so a port read is only logged when its value
+ * differs from the previous read of the same port.
+ *
+ * The log can be saved as a journal (see {@link #write(OutputStream)}) and read
+ * back to replay a session: numbers are stored as variable-length integers and
+ * instruction counts as the difference with the previous input, so an input
+ * usually takes 3 or 4 bytes. The journal starts with the hash of the program
+ * which read the inputs, see {@link #setProgramHash(String)}.
+ */
+public class InputLog {
+	private static final int INITIAL_CAPACITY = 64;
+	private static final int JOURNAL_MAGIC = 0x41524D4A; // "ARMJ"
+	private static final int JOURNAL_VERSION = 2;
+	private static final int UNHASHED_JOURNAL_VERSION = 1;
+
+	private long[] counts;
+	private byte[] kinds;
+	private int[] values;
+	private long[] addresses;
+	private byte[][] data;
+	private int size;
+	private int cursor;
+	private String programHash;
+
+	/**
+	 * The last value read from each port, the key holds the address and the size of the read
+	 */
+	private final Map<Long, Integer> portValues;
+
+	public InputLog() {
+		this.counts = new long[INITIAL_CAPACITY];
+		this.kinds = new byte[INITIAL_CAPACITY];
+		this.values = new int[INITIAL_CAPACITY];
+		this.addresses = new long[INITIAL_CAPACITY];
+		this.data = new byte[INITIAL_CAPACITY][];
+		this.portValues = new HashMap<>();
+	}
+
+	/**
+	 * @return The number of inputs in the log
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return true if the next inputs come from the log
+	 */
+	public synchronized boolean isReplaying() {
+		return this.cursor < this.size;
+	}
+
+	/**
+	 * Forget every input
+	 */
+	public synchronized void clear() {
+		this.size = 0;
+		this.cursor = 0;
+		this.portValues.clear();
+	}
+
+	/**
+	 * Forget the inputs after the current position, they will be read again
+	 */
+	public synchronized void truncate() {
+		this.size = this.cursor;
+	}
+
+	/**
+	 * Go back to the inputs read after the given number of instructions
+	 * @param instructionCount The number of instructions executed
+	 */
+	public synchronized void rewind(long instructionCount) {
+		this.cursor = 0;
+		this.portValues.clear();
+
+		while (this.cursor < this.size && this.counts[this.cursor] <= instructionCount) {
+			if (this.kinds[this.cursor] == InputKind.PORT.ordinal()) {
+				this.portValues.put(this.addresses[this.cursor], this.values[this.cursor]);
+			}
+			this.cursor++;
+		}
+	}
+
+	/**
+	 * @param kind The kind of the input
+	 * @param instructionCount The number of instructions executed when the input is read
+	 * @param live Reads the input when it isn't in the log
+	 * @return The input
+	 */
+	public synchronized int read(InputKind kind, long instructionCount, IntSupplier live) {
+		if (this.next(kind, instructionCount)) {
+			return this.values[this.cursor++];
+		}
+
+		int value = live.getAsInt();
+		this.append(instructionCount, kind, value, 0, null);
+		return value;
+	}
+
+	/**
+	 * @param kind The kind of the input
+	 * @param instructionCount The number of instructions executed when the input is read
+	 * @param live Reads the input when it isn't in the log
+	 * @return The input
+	 */
+	public synchronized byte[] readBytes(InputKind kind, long instructionCount, Supplier<byte[]> live) {
+		if (this.next(kind, instructionCount)) {
+			byte[] value = this.data[this.cursor++];
+			return value == null ? null : value.clone();
+		}
+
+		byte[] value = live.get();
+		this.append(instructionCount, kind, 0, 0, value == null ? null : value.clone());
+		return value;
+	}
+
+	/**
+	 * @param address The address of the port
+	 * @param size The size of the read in bytes
+	 * @param instructionCount The number of instructions executed when the port is read
+	 * @param live Reads the port when it isn't in the log
+	 * @return The value of the port
+	 */
+	public synchronized int readPort(long address, int size, long instructionCount, IntSupplier live) {
+		long key = address << 3 | size;
+
+		if (this.next(InputKind.PORT, instructionCount) && this.addresses[this.cursor] == key) {
+			int value = this.values[this.cursor++];
+			this.portValues.put(key, value);
+			return value;
+		}
+
+		Integer last = this.portValues.get(key);
+
+		if (this.cursor < this.size) {
+			if (last != null) {
+				return last; // The port didn't change since it was last read
+			}
+			this.diverge();
+		}
+
+		int value = live.getAsInt();
+
+		if (last == null || last != value) {
+			this.append(instructionCount, InputKind.PORT, value, key, null);
+			this.portValues.put(key, value);
+		}
+		return value;
+	}
+
+	/**
+	 * @return The hash of the program which read the inputs, null if unknown
+	 */
+	public synchronized String getProgramHash() {
+		return this.programHash;
+	}
+
+	/**
+	 * @param programHash The hash of the program which read the inputs, saved in the journal
+	 */
+	public synchronized void setProgramHash(String programHash) {
+		this.programHash = programHash;
+	}
+
+	/**
+	 * Save every input of the log as a journal
+	 * @param out The stream where the journal is written, not closed
+	 * @throws IOException If the stream can't be written
+	 */
+	public synchronized void write(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(JOURNAL_MAGIC);
+		data.writeByte(JOURNAL_VERSION);
+		data.writeUTF(this.programHash == null ? "" : this.programHash);
+		writeVarLong(data, this.size);
+
+		long previousCount = 0;
+
+		for (int i = 0; i < this.size; i++) {
+			writeVarLong(data, this.counts[i] - previousCount);
+			previousCount = this.counts[i];
+			data.writeByte(this.kinds[i]);
+
+			switch (InputKind.values()[this.kinds[i]]) {
+				case CONSOLE_STRING:
+				case FILE:
+					byte[] bytes = this.data[i];
+					writeVarLong(data, bytes == null ? 0 : bytes.length + 1L);
+					if (bytes != null) {
+						data.write(bytes);
+					}
+					break;
+				case PORT:
+					writeVarLong(data, this.addresses[i]);
+					writeVarLong(data, zigZag(this.values[i]));
+					break;
+				default:
+					writeVarLong(data, zigZag(this.values[i]));
+			}
+		}
+
+		data.flush();
+	}
+
+	/**
+	 * Read a journal written by {@link #write(OutputStream)}, the inputs are given back from its start
+	 * @param in The stream holding the journal, not closed
+	 * @return The log of the journal
+	 * @throws IOException If the stream can't be read or doesn't hold a journal
+	 */
+	public static InputLog read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+
+		if (data.readInt() != JOURNAL_MAGIC) {
+			throw new IOException("Not an input journal");
+		}
+		int version = data.readUnsignedByte();
+		if (version != JOURNAL_VERSION && version != UNHASHED_JOURNAL_VERSION) {
+			throw new IOException("Unsupported input journal version");
+		}
+
+		InputLog log = new InputLog();
+		if (version == JOURNAL_VERSION) {
+			String programHash = data.readUTF();
+			log.programHash = programHash.isEmpty() ? null : programHash;
+		}
+		long size = readVarLong(data);
+		long count = 0;
+
+		for (long i = 0; i < size; i++) {
+			count += readVarLong(data);
+			int kind = data.readUnsignedByte();
+
+			if (kind >= InputKind.values().length) {
+				throw new IOException("Unknown input kind " + kind);
+			}
+
+			switch (InputKind.values()[kind]) {
+				case CONSOLE_STRING:
+				case FILE:
+					long length = readVarLong(data);
+					byte[] bytes = null;
+					if (length != 0) {
+						bytes = new byte[(int) (length - 1)];
+						data.readFully(bytes);
+					}
+					log.append(count, InputKind.values()[kind], 0, 0, bytes);
+					break;
+				case PORT:
+					long address = readVarLong(data);
+					log.append(count, InputKind.PORT, unZigZag(readVarLong(data)), address, null);
+					break;
+				default:
+					log.append(count, InputKind.values()[kind], unZigZag(readVarLong(data)), 0, null);
+			}
+		}
+
+		log.cursor = 0;
+		return log;
+	}
+
+	private static long zigZag(int value) {
+		return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+	}
+
+	private static int unZigZag(long value) {
+		return (int) (value >>> 1) ^ -(int) (value & 1);
+	}
+
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+
+		throw new EOFException("Malformed input journal");
+	}
+
+	/**
+	 * @return true if the next input of the log is of the given kind and was read at the given count
+	 */
+	private boolean next(InputKind kind, long instructionCount) {
+		if (this.cursor == this.size) {
+			return false;
+		}
+
+		if (this.kinds[this.cursor] == kind.ordinal() && this.counts[this.cursor] == instructionCount) {
+			return true;
+		}
+
+		if (kind == InputKind.PORT && this.counts[this.cursor] > instructionCount) {
+			return false; // The port didn't change at this read
+		}
+
+		this.diverge();
+		return false;
+	}
+
+	/**
+	 * The program doesn't read what the log holds anymore (its state has been changed), the rest of the log is dropped
+	 */
+	private void diverge() {
+		System.out.println("[WARNING] The execution differs from the logged one, the next inputs are read again");
+		this.size = this.cursor;
+	}
+
+	private void append(long instructionCount, InputKind kind, int value, long address, byte[] bytes) {
+		if (this.size == this.counts.length) {
+			int capacity = this.size * 2;
+			this.counts = Arrays.copyOf(this.counts, capacity);
+			this.kinds = Arrays.copyOf(this.kinds, capacity);
+			this.values = Arrays.copyOf(this.values, capacity);
+			this.addresses = Arrays.copyOf(this.addresses, capacity);
+			this.data = Arrays.copyOf(this.data, capacity);
+		}
+
+		this.counts[this.size] = instructionCount;
+		this.kinds[this.size] = (byte) kind.ordinal();
+		this.values[this.size] = value;
+		this.addresses[this.size] = address;
+		this.data[this.size] = bytes;
+		this.size++;
+		this.cursor = this.size;
+	}
+}
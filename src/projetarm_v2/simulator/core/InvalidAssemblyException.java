@@ -12,8 +12,26 @@ public class InvalidAssemblyException extends RuntimeException {
 
 	private static final long serialVersionUID = -751189391151339140L;
 
+	private final int statement;
+
 	public InvalidAssemblyException(String message) {
+		this(message, -1);
+	}
+
+	/**
+	 * @param message The error
+	 * @param statement The index of the invalid statement in the assembled ones
+	 */
+	public InvalidAssemblyException(String message, int statement) {
 		super(message);
+		this.statement = statement;
+	}
+
+	/**
+	 * @return The index of the invalid statement in the assembled ones, -1 if unknown
+	 */
+	public int getStatement() {
+		return this.statement;
 	}
 
 }
@@ -0,0 +1,1143 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.core;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An assembler for the ARM instructions and directives most programs use,
+ * encoded the way Keystone does.
+ *
+ * It covers data processing (with the shift aliases), multiplications,
+ * single and multiple loads and stores, push and pop, branches, svc, literal
+ * pools and the usual data directives. Anything else throws an
+ * UnsupportedAssemblyException so the caller can fall back to Keystone, while
+ * a statement which can't be valid, like a missing operand or a branch out
+ * of range, throws an InvalidAssemblyException.
+ *
+ * Instances hold no state, they can be shared between threads.
+ */
+public class JavaAssembler {
+
+	private static final Pattern labelPattern = Pattern.compile("^\\s*([a-zA-Z_.$][\\w.$]*)\\s*:");
+
+	private static final String[] conditions = { "eq", "ne", "cs", "cc", "mi", "pl", "vs", "vc", "hi", "ls", "ge", "lt",
+			"gt", "le", "al", "hs", "lo" };
+	private static final int[] conditionCodes = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 2, 3 };
+
+	private static final Map<String, Integer> registers = new HashMap<>();
+	private static final Map<String, Integer> dataProcessing = new HashMap<>();
+	private static final Map<String, Integer> shifts = new HashMap<>();
+	private static final Map<Integer, Integer> negatedOpcodes = new HashMap<>();
+	private static final Map<Integer, Integer> invertedOpcodes = new HashMap<>();
+	private static final Map<String, String[]> suffixes = new HashMap<>();
+	private static final List<String> mnemonics;
+
+	static {
+		for (int i = 0; i < 16; i++) {
+			registers.put("r" + i, i);
+		}
+		registers.put("sb", 9);
+		registers.put("sl", 10);
+		registers.put("fp", 11);
+		registers.put("ip", 12);
+		registers.put("sp", 13);
+		registers.put("lr", 14);
+		registers.put("pc", 15);
+
+		String[] opcodes = { "and", "eor", "sub", "rsb", "add", "adc", "sbc", "rsc", "tst", "teq", "cmp", "cmn", "orr",
+				"mov", "bic", "mvn" };
+		for (int i = 0; i < opcodes.length; i++) {
+			dataProcessing.put(opcodes[i], i);
+		}
+
+		// Keystone swaps to the complementary instruction when only it can encode the immediate
+		negatedOpcodes.put(dataProcessing.get("sub"), dataProcessing.get("add"));
+		negatedOpcodes.put(dataProcessing.get("add"), dataProcessing.get("sub"));
+		negatedOpcodes.put(dataProcessing.get("cmp"), dataProcessing.get("cmn"));
+		negatedOpcodes.put(dataProcessing.get("cmn"), dataProcessing.get("cmp"));
+		invertedOpcodes.put(dataProcessing.get("mov"), dataProcessing.get("mvn"));
+		invertedOpcodes.put(dataProcessing.get("mvn"), dataProcessing.get("mov"));
+		invertedOpcodes.put(dataProcessing.get("and"), dataProcessing.get("bic"));
+		invertedOpcodes.put(dataProcessing.get("bic"), dataProcessing.get("and"));
+		invertedOpcodes.put(dataProcessing.get("adc"), dataProcessing.get("sbc"));
+		invertedOpcodes.put(dataProcessing.get("sbc"), dataProcessing.get("adc"));
+
+		shifts.put("lsl", 0);
+		shifts.put("asl", 0);
+		shifts.put("lsr", 1);
+		shifts.put("asr", 2);
+		shifts.put("ror", 3);
+
+		String[] flag = { "", "s" };
+		String[] none = { "" };
+		String[] multiple = { "", "ia", "ib", "da", "db", "fd", "fa", "ed", "ea" };
+
+		for (String opcode : opcodes) {
+			suffixes.put(opcode, opcode.startsWith("t") || opcode.startsWith("cm") ? none : flag);
+		}
+		for (String mnemonic : Arrays.asList("lsl", "lsr", "asr", "ror", "rrx", "mul", "mla", "umull", "umlal", "smull", "smlal")) {
+			suffixes.put(mnemonic, flag);
+		}
+		for (String mnemonic : Arrays.asList("b", "bl", "bx", "blx", "adr", "svc", "swi", "push", "pop")) {
+			suffixes.put(mnemonic, none);
+		}
+		suffixes.put("ldr", new String[] { "", "b", "h", "sb", "sh" });
+		suffixes.put("str", new String[] { "", "b", "h" });
+		suffixes.put("ldm", multiple);
+		suffixes.put("stm", multiple);
+
+		List<String> sorted = new ArrayList<>(suffixes.keySet());
+		sorted.sort((a, b) -> b.length() - a.length());
+		mnemonics = sorted;
+	}
+
+	/**
+	 * @param assembly The statements, separated by semicolons or new lines
+	 * @param startingAddress The address of the first byte
+	 * @return The binary
+	 * @throws UnsupportedAssemblyException If a statement isn't handled
+	 * @throws InvalidAssemblyException If a statement is invalid
+	 */
+	public byte[] assemble(String assembly, long startingAddress) {
+		return this.assemble(split(assembly), startingAddress);
+	}
+
+	/**
+	 * The exceptions give the index of the line holding the statement they are about
+	 * @param lines The lines of the program, each one may hold several statements
+	 * @param startingAddress The address of the first byte
+	 * @return The binary
+	 * @throws UnsupportedAssemblyException If a statement isn't handled
+	 * @throws InvalidAssemblyException If a statement is invalid
+	 */
+	public byte[] assemble(List<String> lines, long startingAddress) {
+		return this.assemble(lines, startingAddress, false);
+	}
+
+	/**
+	 * Find the first invalid statement of a program Keystone refused, the statements which
+	 * aren't handled are skipped, so only the first of them is blamed if no other is invalid
+	 * @param lines The lines of the program, each one may hold several statements
+	 * @param startingAddress The address of the first byte
+	 * @return The index of the line of the statement, or -1
+	 */
+	int locateError(List<String> lines, long startingAddress) {
+		try {
+			this.assemble(lines, startingAddress, true);
+		} catch (InvalidAssemblyException | UnsupportedAssemblyException e) {
+			return e instanceof InvalidAssemblyException ? ((InvalidAssemblyException) e).getStatement()
+					: ((UnsupportedAssemblyException) e).getStatement();
+		}
+		return -1;
+	}
+
+	private byte[] assemble(List<String> lines, long startingAddress, boolean locating) {
+		List<String> statements = new ArrayList<>();
+		List<Integer> lineNumbers = new ArrayList<>();
+
+		for (int i = 0; i < lines.size(); i++) {
+			for (String statement : split(lines.get(i))) {
+				statements.add(statement);
+				lineNumbers.add(i);
+			}
+		}
+
+		Pass layout = new Pass(startingAddress, null, locating);
+		layout.run(statements, lineNumbers);
+
+		Pass emit = new Pass(startingAddress, layout, locating);
+		emit.run(statements, lineNumbers);
+
+		if (emit.skipped >= 0) {
+			throw new UnsupportedAssemblyException("Skipped statement", emit.skipped);
+		}
+
+		for (String label : layout.labels) {
+			if (!emit.symbols.get(label).equals(layout.symbols.get(label))) {
+				throw new UnsupportedAssemblyException("Label " + label + " moved between passes");
+			}
+		}
+		return emit.output.toByteArray();
+	}
+
+	/**
+	 * Split the statements, removing the comments, outside of the strings
+	 */
+	private static List<String> split(String assembly) {
+		List<String> statements = new ArrayList<>();
+		StringBuilder statement = new StringBuilder();
+		boolean quoted = false;
+		boolean comment = false;
+
+		for (int i = 0; i < assembly.length(); i++) {
+			char c = assembly.charAt(i);
+
+			if (!quoted && (c == ';' || c == '\n')) {
+				statements.add(statement.toString());
+				statement.setLength(0);
+				comment = false;
+				continue;
+			}
+			if (comment) {
+				continue;
+			}
+			if (!quoted && c == '@') {
+				comment = true;
+				continue;
+			}
+			if (quoted && c == '\\' && i + 1 < assembly.length()) {
+				statement.append(c).append(assembly.charAt(++i)); // An escaped quote doesn't end the string
+				continue;
+			}
+			if (c == '"') {
+				quoted = !quoted;
+			}
+			statement.append(c);
+		}
+		statements.add(statement.toString());
+
+		return statements;
+	}
+
+	/**
+	 * One pass over the program. The first one places the labels and the literal
+	 * pools, the second one encodes with the addresses found by the first.
+	 */
+	private static final class Pass {
+		private final long startingAddress;
+		private final Pass layout;
+		private final Map<String, Long> symbols = new HashMap<>();
+		private final Set<String> labels = new HashSet<>();
+		private final Output output = new Output();
+		private final List<String> pendingLiterals = new ArrayList<>();
+		private final List<Long> literalAddresses = new ArrayList<>();
+		private int literals;
+		private final boolean locating;
+		private int skipped = -1;
+
+		/**
+		 * @param locating true to skip the statements which aren't handled, see {@link JavaAssembler#locateError(List, long)}
+		 */
+		Pass(long startingAddress, Pass layout, boolean locating) {
+			this.startingAddress = startingAddress;
+			this.layout = layout;
+			this.locating = locating;
+		}
+
+		private boolean isFinal() {
+			return this.layout != null;
+		}
+
+		private long address() {
+			return this.startingAddress + this.output.size();
+		}
+
+		/**
+		 * @param lineNumbers The line of each statement, given by the exceptions
+		 */
+		void run(List<String> statements, List<Integer> lineNumbers) {
+			for (int i = 0; i < statements.size(); i++) {
+				try {
+					this.statement(statements.get(i));
+				} catch (InvalidAssemblyException e) {
+					throw new InvalidAssemblyException(e.getMessage(), lineNumbers.get(i));
+				} catch (UnsupportedAssemblyException e) {
+					if (!this.locating) {
+						throw new UnsupportedAssemblyException(e.getMessage(), lineNumbers.get(i));
+					}
+					if (this.skipped < 0) {
+						this.skipped = lineNumbers.get(i);
+					}
+				}
+			}
+
+			this.flushLiterals();
+		}
+
+		private void statement(String statement) {
+			Matcher matcher = labelPattern.matcher(statement);
+
+			while (matcher.find()) {
+				String label = matcher.group(1);
+				if (this.symbols.containsKey(label)) {
+					throw new InvalidAssemblyException("Symbol " + label + " is already defined");
+				}
+				this.symbols.put(label, this.address());
+				this.labels.add(label);
+
+				statement = statement.substring(matcher.end());
+				matcher = labelPattern.matcher(statement);
+			}
+
+			statement = statement.trim();
+			if (statement.isEmpty()) {
+				return;
+			}
+
+			int space = 0;
+			while (space < statement.length() && !Character.isWhitespace(statement.charAt(space))) {
+				space++;
+			}
+
+			String mnemonic = statement.substring(0, space).toLowerCase();
+			List<String> operands = operands(statement.substring(space));
+
+			if (mnemonic.startsWith(".")) {
+				this.directive(mnemonic, operands);
+			} else {
+				this.output.writeInt(this.instruction(mnemonic, operands));
+			}
+		}
+
+		// ---- Directives ----
+
+		private void directive(String directive, List<String> operands) {
+			switch (directive) {
+				case ".word": case ".long": case ".int": case ".4byte":
+					for (String operand : operands) {
+						this.output.writeInt((int) this.evaluate(operand));
+					}
+					break;
+				case ".hword": case ".short": case ".2byte":
+					for (String operand : operands) {
+						this.output.writeShort((int) this.evaluate(operand));
+					}
+					break;
+				case ".byte":
+					for (String operand : operands) {
+						this.output.write((int) this.evaluate(operand));
+					}
+					break;
+				case ".ascii": case ".asciz": case ".string":
+					for (String operand : operands) {
+						this.output.writeBytes(string(operand));
+						if (!directive.equals(".ascii")) {
+							this.output.write(0);
+						}
+					}
+					break;
+				case ".align": case ".p2align":
+					// Without operand, .align aligns on a word
+					this.align(operands.isEmpty() ? 4 : 1 << this.evaluateNow(single(operands)));
+					break;
+				case ".balign":
+					this.align((int) this.evaluateNow(single(operands)));
+					break;
+				case ".space": case ".skip": case ".zero":
+					if (operands.isEmpty() || operands.size() > 2) {
+						throw new InvalidAssemblyException("Invalid " + directive);
+					}
+					long count = this.evaluateNow(operands.get(0));
+					int fill = operands.size() == 2 ? (int) this.evaluate(operands.get(1)) : 0;
+					for (long i = 0; i < count; i++) {
+						this.output.write(fill);
+					}
+					break;
+				case ".org":
+					long offset = this.evaluateNow(single(operands));
+					if (offset < this.output.size()) {
+						throw new InvalidAssemblyException(".org moves backwards");
+					}
+					while (this.output.size() < offset) {
+						this.output.write(0);
+					}
+					break;
+				case ".ltorg": case ".pool":
+					this.flushLiterals();
+					break;
+				case ".equ": case ".set":
+					if (operands.size() != 2) {
+						throw new InvalidAssemblyException("Invalid " + directive);
+					}
+					this.symbols.put(operands.get(0).trim(), this.evaluate(operands.get(1)));
+					break;
+				case ".code":
+					if (this.evaluateNow(single(operands)) != 32) {
+						throw new UnsupportedAssemblyException("Only ARM code is handled");
+					}
+					break;
+				case ".arm": case ".text": case ".global": case ".globl": case ".syntax": case ".type": case ".size":
+					break;
+				default:
+					throw new UnsupportedAssemblyException("Unknown directive " + directive);
+			}
+		}
+
+		/**
+		 * Pad the code the way LLVM does for less than a word, longer paddings are filled with nops
+		 */
+		private void align(int alignment) {
+			if (alignment <= 0 || Integer.bitCount(alignment) != 1) {
+				throw new InvalidAssemblyException("Invalid alignment " + alignment);
+			}
+
+			int padding = (int) ((alignment - this.address() % alignment) % alignment);
+			if (padding >= 4) {
+				throw new UnsupportedAssemblyException("Alignment padded with nops");
+			}
+			for (int i = 0; i < padding; i++) {
+				this.output.write(i == 2 ? 0xA0 : 0);
+			}
+		}
+
+		private void flushLiterals() {
+			if (this.pendingLiterals.isEmpty()) {
+				return;
+			}
+
+			for (String literal : this.pendingLiterals) {
+				this.align(4);
+				this.literalAddresses.add(this.address());
+				this.output.writeInt((int) this.evaluate(literal));
+			}
+			this.pendingLiterals.clear();
+		}
+
+		// ---- Instructions ----
+
+		private int instruction(String statement, List<String> operands) {
+			for (String mnemonic : mnemonics) {
+				if (!statement.startsWith(mnemonic)) {
+					continue;
+				}
+
+				String rest = statement.substring(mnemonic.length());
+
+				for (String suffix : suffixes.get(mnemonic)) {
+					if (rest.equals(suffix)) {
+						return (14 << 28) | this.encode(mnemonic, suffix, operands);
+					}
+
+					for (int i = 0; i < conditions.length; i++) {
+						if (rest.equals(suffix + conditions[i]) || rest.equals(conditions[i] + suffix)) {
+							return (conditionCodes[i] << 28) | this.encode(mnemonic, suffix, operands);
+						}
+					}
+				}
+			}
+
+			throw new UnsupportedAssemblyException("Unknown instruction " + statement);
+		}
+
+		private int encode(String mnemonic, String suffix, List<String> operands) {
+			int s = suffix.equals("s") ? 1 << 20 : 0;
+
+			switch (mnemonic) {
+				case "b": case "bl":
+					return (mnemonic.equals("bl") ? 0x0B000000 : 0x0A000000) | this.branchOffset(single(operands));
+				case "bx":
+					return 0x012FFF10 | register(single(operands));
+				case "blx":
+					return 0x012FFF30 | register(single(operands));
+				case "adr":
+					return this.address(operands);
+				case "svc": case "swi":
+					String number = single(operands).trim();
+					long value = this.evaluate(number.startsWith("#") ? number.substring(1) : number);
+					if (value < 0 || value > 0xFFFFFF) {
+						throw new InvalidAssemblyException("Invalid svc number");
+					}
+					return 0x0F000000 | (int) value;
+				case "push": case "pop":
+					return this.stack(mnemonic.equals("pop"), single(operands));
+				case "ldr": case "str":
+					return this.singleTransfer(mnemonic.equals("ldr"), suffix, operands);
+				case "ldm": case "stm":
+					return this.multipleTransfer(mnemonic.equals("ldm"), suffix, operands);
+				case "mul": case "mla":
+					return s | this.multiply(mnemonic.equals("mla"), operands);
+				case "umull": case "umlal": case "smull": case "smlal":
+					return s | this.longMultiply(mnemonic, operands);
+				case "lsl": case "lsr": case "asr": case "ror": case "rrx":
+					return s | this.shift(mnemonic, operands);
+				default:
+					return s | this.dataProcessing(mnemonic, operands);
+			}
+		}
+
+		private int dataProcessing(String mnemonic, List<String> operands) {
+			if (operands.size() < 2) {
+				throw new InvalidAssemblyException("Missing operand");
+			}
+
+			int opcode = dataProcessing.get(mnemonic);
+			boolean compare = opcode >= 8 && opcode <= 11;
+			boolean move = opcode == 13 || opcode == 15;
+			int rd = 0;
+			int rn = 0;
+
+			List<String> rest;
+			if (compare) {
+				rn = register(operands.get(0));
+				rest = operands.subList(1, operands.size());
+			} else if (move) {
+				rd = register(operands.get(0));
+				rest = operands.subList(1, operands.size());
+			} else if (operands.size() == 2 || (operands.size() == 3 && isShift(operands.get(2)))) {
+				// add r0, #1 is add r0, r0, #1
+				rd = rn = register(operands.get(0));
+				rest = operands.subList(1, operands.size());
+			} else {
+				rd = register(operands.get(0));
+				rn = register(operands.get(1));
+				rest = operands.subList(2, operands.size());
+			}
+
+			if (rest.isEmpty()) {
+				throw new InvalidAssemblyException("Missing operand");
+			}
+
+			if (rest.get(0).trim().startsWith("#")) {
+				if (rest.size() != 1) {
+					throw new UnsupportedAssemblyException("Rotated immediates aren't handled");
+				}
+
+				int value = (int) this.evaluate(rest.get(0).trim().substring(1));
+				int encoded = modifiedImmediate(value);
+
+				if (encoded < 0 && negatedOpcodes.containsKey(opcode)) {
+					encoded = modifiedImmediate(-value);
+					opcode = negatedOpcodes.get(opcode);
+				} else if (encoded < 0 && invertedOpcodes.containsKey(opcode)) {
+					encoded = modifiedImmediate(~value);
+					opcode = invertedOpcodes.get(opcode);
+				}
+
+				if (encoded < 0) {
+					throw new UnsupportedAssemblyException("Immediate " + value + " can't be encoded");
+				}
+
+				return (1 << 25) | (opcode << 21) | (compare ? 1 << 20 : 0) | (rn << 16) | (rd << 12) | encoded;
+			}
+
+			return (opcode << 21) | (compare ? 1 << 20 : 0) | (rn << 16) | (rd << 12) | this.shiftedRegister(rest);
+		}
+
+		/**
+		 * lsl rd, rm, #n is mov rd, rm, lsl #n
+		 */
+		private int shift(String mnemonic, List<String> operands) {
+			if (operands.isEmpty()) {
+				throw new InvalidAssemblyException("Missing operand");
+			}
+
+			int rd = register(operands.get(0));
+			List<String> rest = operands.size() == 2 && !mnemonic.equals("rrx")
+					? Arrays.asList(operands.get(0), operands.get(1))
+					: operands.subList(1, operands.size());
+
+			if (mnemonic.equals("rrx")) {
+				if (rest.size() != 1) {
+					throw new InvalidAssemblyException("Invalid rrx");
+				}
+				return 0x01A00060 | (rd << 12) | register(rest.get(0));
+			}
+			if (rest.size() != 2) {
+				throw new InvalidAssemblyException("Invalid " + mnemonic);
+			}
+
+			return 0x01A00000 | (rd << 12) | this.shiftedRegister(Arrays.asList(rest.get(0), mnemonic + " " + rest.get(1).trim()));
+		}
+
+		/**
+		 * @param operands The register and its optional shift
+		 */
+		private int shiftedRegister(List<String> operands) {
+			int rm = register(operands.get(0));
+
+			if (operands.size() == 1) {
+				return rm;
+			}
+			if (operands.size() != 2) {
+				throw new InvalidAssemblyException("Too many operands");
+			}
+
+			String shift = operands.get(1).trim().toLowerCase();
+			if (shift.equals("rrx")) {
+				return 0x60 | rm;
+			}
+
+			String[] parts = shift.split("\\s+", 2);
+			Integer type = shifts.get(parts[0]);
+			if (type == null || parts.length != 2) {
+				throw new UnsupportedAssemblyException("Invalid shift " + shift);
+			}
+
+			String amount = parts[1].trim();
+			if (!amount.startsWith("#")) {
+				return (register(amount) << 8) | (type << 5) | 0x10 | rm;
+			}
+
+			long value = this.evaluate(amount.substring(1));
+			if (value == 0) {
+				return rm;
+			}
+			if (value < 0 || value > (type == 1 || type == 2 ? 32 : 31)) {
+				throw new InvalidAssemblyException("Invalid shift amount " + value);
+			}
+			return ((int) (value & 31) << 7) | (type << 5) | rm;
+		}
+
+		private int multiply(boolean accumulate, List<String> operands) {
+			if (operands.size() < 2) {
+				throw new InvalidAssemblyException("Missing operand");
+			}
+
+			int rd = register(operands.get(0));
+			int rm = register(operands.get(1));
+
+			if (!accumulate) {
+				// mul rd, rm is mul rd, rm, rd
+				int rs = operands.size() == 2 ? rd : register(operands.get(2));
+				if (operands.size() > 3) {
+					throw new InvalidAssemblyException("Too many operands");
+				}
+				return (rd << 16) | (rs << 8) | 0x90 | rm;
+			}
+
+			if (operands.size() != 4) {
+				throw new InvalidAssemblyException("Invalid mla");
+			}
+			return 0x00200000 | (rd << 16) | (register(operands.get(3)) << 12) | (register(operands.get(2)) << 8) | 0x90 | rm;
+		}
+
+		private int longMultiply(String mnemonic, List<String> operands) {
+			if (operands.size() != 4) {
+				throw new InvalidAssemblyException("Invalid " + mnemonic);
+			}
+
+			int opcode = mnemonic.equals("umull") ? 0x00800090
+					: mnemonic.equals("umlal") ? 0x00A00090
+					: mnemonic.equals("smull") ? 0x00C00090
+					: 0x00E00090;
+
+			return opcode | (register(operands.get(1)) << 16) | (register(operands.get(0)) << 12)
+					| (register(operands.get(3)) << 8) | register(operands.get(2));
+		}
+
+		private int branchOffset(String target) {
+			target = target.trim();
+			if (target.startsWith("#") || !this.referencesLabel(target)) {
+				throw new UnsupportedAssemblyException("Only branches to labels are handled");
+			}
+
+			if (!this.isFinal()) {
+				return 0;
+			}
+
+			long offset = this.evaluate(target) - (this.address() + 8);
+			if (offset % 4 != 0 || offset < -(1 << 25) || offset >= (1 << 25)) {
+				throw new InvalidAssemblyException("Branch out of range");
+			}
+			return (int) (offset >> 2) & 0xFFFFFF;
+		}
+
+		/**
+		 * adr rd, label is an add or a sub to the pc
+		 */
+		private int address(List<String> operands) {
+			if (operands.size() != 2) {
+				throw new InvalidAssemblyException("Invalid adr");
+			}
+
+			int rd = register(operands.get(0));
+			if (!this.isFinal()) {
+				return 0;
+			}
+
+			long offset = this.evaluate(operands.get(1)) - (this.address() + 8);
+			int encoded = modifiedImmediate((int) Math.abs(offset));
+			if (encoded < 0 || Math.abs(offset) > 0xFFFFFFFFL) {
+				throw new InvalidAssemblyException("adr out of range");
+			}
+			return (offset >= 0 ? 0x028F0000 : 0x024F0000) | (rd << 12) | encoded;
+		}
+
+		private int stack(boolean pop, String list) {
+			int registers = registerList(list);
+
+			// A single register uses ldr and str, as the ARM ARM requires
+			if (Integer.bitCount(registers) == 1) {
+				int rd = Integer.numberOfTrailingZeros(registers);
+				return (pop ? 0x049D0004 : 0x052D0004) | (rd << 12);
+			}
+			return (pop ? 0x08BD0000 : 0x092D0000) | registers;
+		}
+
+		private int multipleTransfer(boolean load, String mode, List<String> operands) {
+			if (operands.size() != 2) {
+				throw new InvalidAssemblyException("Invalid multiple transfer");
+			}
+
+			String base = operands.get(0).trim();
+			boolean writeBack = base.endsWith("!");
+			int rn = register(writeBack ? base.substring(0, base.length() - 1) : base);
+			int registers = registerList(operands.get(1));
+
+			switch (mode) {
+				case "fd": mode = load ? "ia" : "db"; break;
+				case "fa": mode = load ? "da" : "ib"; break;
+				case "ed": mode = load ? "ib" : "da"; break;
+				case "ea": mode = load ? "db" : "ia"; break;
+				case "": mode = "ia"; break;
+				default: break;
+			}
+
+			int p = mode.charAt(1) == 'b' ? 1 << 24 : 0;
+			int u = mode.charAt(0) == 'i' ? 1 << 23 : 0;
+
+			return 0x08000000 | p | u | (writeBack ? 1 << 21 : 0) | (load ? 1 << 20 : 0) | (rn << 16) | registers;
+		}
+
+		private int singleTransfer(boolean load, String size, List<String> operands) {
+			if (operands.size() < 2) {
+				throw new InvalidAssemblyException("Missing operand");
+			}
+
+			int rd = register(operands.get(0));
+			String address = operands.get(1).trim();
+			boolean halfword = size.equals("h") || size.equals("sb") || size.equals("sh");
+			int l = load ? 1 << 20 : 0;
+
+			if (address.startsWith("=")) {
+				if (!load || !size.isEmpty() || operands.size() != 2) {
+					throw new UnsupportedAssemblyException("Invalid literal load");
+				}
+				return 0x05100000 | (15 << 16) | (rd << 12) | this.literal(address.substring(1));
+			}
+
+			if (!address.startsWith("[")) {
+				if (operands.size() != 2) {
+					throw new UnsupportedAssemblyException("Invalid address");
+				}
+				// A label, relative to the pc
+				long offset = this.isFinal() ? this.evaluate(address) - (this.address() + 8) : 0;
+				return this.transfer(halfword, size, l | (1 << 24) | (15 << 16) | (rd << 12), offset);
+			}
+
+			boolean writeBack = false;
+			String inside;
+			List<String> after = operands.subList(2, operands.size());
+
+			if (address.endsWith("!")) {
+				writeBack = true;
+				address = address.substring(0, address.length() - 1).trim();
+			}
+			if (!address.endsWith("]")) {
+				throw new UnsupportedAssemblyException("Invalid address " + address);
+			}
+			inside = address.substring(1, address.length() - 1);
+
+			List<String> parts = JavaAssembler.operands(inside);
+			if (parts.isEmpty()) {
+				throw new InvalidAssemblyException("Invalid address " + address);
+			}
+			int rn = register(parts.get(0));
+			int base = l | (rn << 16) | (rd << 12);
+
+			if (!after.isEmpty()) {
+				// Post-indexed
+				if (parts.size() != 1 || writeBack) {
+					throw new UnsupportedAssemblyException("Invalid post-indexed address");
+				}
+				return this.offset(halfword, size, base, after);
+			}
+
+			base |= (1 << 24) | (writeBack ? 1 << 21 : 0);
+			if (parts.size() == 1) {
+				return this.transfer(halfword, size, base, 0);
+			}
+			return this.offset(halfword, size, base, parts.subList(1, parts.size()));
+		}
+
+		private int offset(boolean halfword, String size, int base, List<String> offset) {
+			String first = offset.get(0).trim();
+
+			if (first.startsWith("#")) {
+				if (offset.size() != 1) {
+					throw new UnsupportedAssemblyException("Invalid offset");
+				}
+				return this.transfer(halfword, size, base, this.evaluate(first.substring(1)));
+			}
+
+			boolean subtract = first.startsWith("-");
+			if (subtract || first.startsWith("+")) {
+				first = first.substring(1);
+			}
+
+			List<String> register = new ArrayList<>(offset);
+			register.set(0, first);
+			int u = subtract ? 0 : 1 << 23;
+
+			if (halfword) {
+				if (register.size() != 1) {
+					throw new UnsupportedAssemblyException("Halfword transfers can't shift their offset");
+				}
+				return this.halfwordBits(size) | base | u | register(first);
+			}
+			return 0x06000000 | this.byteBit(size) | base | u | this.shiftedRegister(register);
+		}
+
+		private int transfer(boolean halfword, String size, int base, long offset) {
+			int u = offset >= 0 ? 1 << 23 : 0;
+			long magnitude = Math.abs(offset);
+
+			if (halfword) {
+				if (magnitude > 255) {
+					throw new InvalidAssemblyException("Offset out of range");
+				}
+				int value = (int) magnitude;
+				return this.halfwordBits(size) | (1 << 22) | base | u | ((value & 0xF0) << 4) | (value & 0xF);
+			}
+
+			if (magnitude > 4095) {
+				throw new InvalidAssemblyException("Offset out of range");
+			}
+			return 0x04000000 | this.byteBit(size) | base | u | (int) magnitude;
+		}
+
+		private int byteBit(String size) {
+			return size.equals("b") ? 1 << 22 : 0;
+		}
+
+		private int halfwordBits(String size) {
+			return 0x90 | (size.equals("h") ? 0x20 : size.equals("sb") ? 0x40 : 0x60);
+		}
+
+		/**
+		 * Add a value to the pending literal pool
+		 * @return The offset field and U bit of the load of the value
+		 */
+		private int literal(String value) {
+			int index = this.literals++;
+			this.pendingLiterals.add(value);
+
+			if (!this.isFinal()) {
+				return 1 << 23;
+			}
+
+			long offset = this.layout.literalAddresses.get(index) - (this.address() + 8);
+			if (Math.abs(offset) > 4095) {
+				throw new UnsupportedAssemblyException("Literal pool out of range");
+			}
+			return (offset >= 0 ? 1 << 23 : 0) | (int) Math.abs(offset);
+		}
+
+		// ---- Expressions ----
+
+		private boolean referencesLabel(String expression) {
+			for (String token : expression.split("[^\\w.$]+")) {
+				if (!token.isEmpty() && this.isLabel(token)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private boolean isLabel(String name) {
+			return this.labels.contains(name) || (this.layout != null && this.layout.labels.contains(name))
+					|| (!this.isFinal() && !this.symbols.containsKey(name) && Character.isLetter(name.charAt(0)));
+		}
+
+		/**
+		 * Evaluate an expression whose value changes the layout, it can't use symbols defined later
+		 */
+		private long evaluateNow(String expression) {
+			return this.evaluate(expression, true);
+		}
+
+		private long evaluate(String expression) {
+			return this.evaluate(expression, false);
+		}
+
+		/**
+		 * Evaluate a sum of numbers, characters and symbols
+		 */
+		private long evaluate(String expression, boolean now) {
+			String text = expression.trim();
+			if (text.isEmpty()) {
+				throw new InvalidAssemblyException("Missing value");
+			}
+
+			long total = 0;
+			int i = 0;
+
+			while (i < text.length()) {
+				int sign = 1;
+				while (i < text.length() && (text.charAt(i) == '-' || text.charAt(i) == '+' || text.charAt(i) == ' ')) {
+					if (text.charAt(i) == '-') {
+						sign = -sign;
+					}
+					i++;
+				}
+
+				int start = i;
+				long value;
+
+				if (i < text.length() && text.charAt(i) == '\'') {
+					if (i + 2 >= text.length() || text.charAt(i + 2) != '\'') {
+						throw new UnsupportedAssemblyException("Invalid character " + text);
+					}
+					value = text.charAt(i + 1);
+					i += 3;
+				} else {
+					while (i < text.length() && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_'
+							|| text.charAt(i) == '.' || text.charAt(i) == '$')) {
+						i++;
+					}
+					if (start == i) {
+						throw new UnsupportedAssemblyException("Invalid expression " + text);
+					}
+					value = this.term(text.substring(start, i), now);
+				}
+
+				total += sign * value;
+
+				while (i < text.length() && text.charAt(i) == ' ') {
+					i++;
+				}
+				if (i < text.length() && text.charAt(i) != '+' && text.charAt(i) != '-') {
+					throw new UnsupportedAssemblyException("Invalid expression " + text);
+				}
+			}
+
+			return total;
+		}
+
+		private long term(String term, boolean now) {
+			if (Character.isDigit(term.charAt(0))) {
+				return number(term);
+			}
+
+			Long value = this.symbols.get(term);
+			if (value == null && this.isFinal() && !now) {
+				value = this.layout.symbols.get(term);
+			}
+			if (value == null) {
+				if (this.isFinal() || now) {
+					throw new UnsupportedAssemblyException("Undefined symbol " + term);
+				}
+				return 0; // Placed later in this pass
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * Parse a number the way LLVM does, a leading 0 means octal
+	 */
+	private static long number(String text) {
+		String lower = text.toLowerCase();
+
+		try {
+			if (lower.startsWith("0x")) {
+				return Long.parseLong(lower.substring(2), 16);
+			} else if (lower.startsWith("0b")) {
+				return Long.parseLong(lower.substring(2), 2);
+			} else if (lower.length() > 1 && lower.startsWith("0")) {
+				return Long.parseLong(lower.substring(1), 8);
+			}
+			return Long.parseLong(lower);
+		} catch (NumberFormatException e) {
+			throw new UnsupportedAssemblyException("Invalid number " + text);
+		}
+	}
+
+	/**
+	 * @return The rotated immediate encoding of the value as LLVM picks it, or -1
+	 */
+	static int modifiedImmediate(int value) {
+		int rotation = immediateRotation(value);
+
+		if ((Integer.rotateRight(~255, rotation) & value) != 0) {
+			return -1;
+		}
+		return Integer.rotateLeft(value, rotation) | ((rotation >> 1) << 8);
+	}
+
+	private static int immediateRotation(int value) {
+		if ((value & ~255) == 0) {
+			return 0;
+		}
+
+		int amount = Integer.numberOfTrailingZeros(value) & ~1;
+		if ((Integer.rotateRight(value, amount) & ~255) == 0) {
+			return (32 - amount) & 31;
+		}
+
+		// Values like 0xF000000F wrap around, skip the low bits and retry
+		if ((value & 63) != 0) {
+			int wrapped = Integer.numberOfTrailingZeros(value & ~63) & ~1;
+			if ((Integer.rotateRight(value, wrapped) & ~255) == 0) {
+				return (32 - wrapped) & 31;
+			}
+		}
+
+		return (32 - amount) & 31;
+	}
+
+	private static boolean isShift(String operand) {
+		String[] parts = operand.trim().toLowerCase().split("\\s+");
+		return shifts.containsKey(parts[0]) || parts[0].equals("rrx");
+	}
+
+	private static int register(String operand) {
+		Integer register = registers.get(operand.trim().toLowerCase());
+
+		if (register == null) {
+			throw new UnsupportedAssemblyException("Invalid register " + operand.trim());
+		}
+		return register;
+	}
+
+	private static int registerList(String operand) {
+		String list = operand.trim();
+
+		if (!list.startsWith("{") || !list.endsWith("}")) {
+			throw new InvalidAssemblyException("Invalid register list " + list);
+		}
+
+		int registers = 0;
+		for (String item : list.substring(1, list.length() - 1).split(",")) {
+			String[] range = item.split("-");
+			if (range.length == 0 || range.length > 2) {
+				throw new InvalidAssemblyException("Invalid register range " + item);
+			}
+			int first = register(range[0]);
+			int last = range.length == 2 ? register(range[1]) : first;
+
+			if (last < first) {
+				throw new InvalidAssemblyException("Invalid register range " + item);
+			}
+			for (int i = first; i <= last; i++) {
+				registers |= 1 << i;
+			}
+		}
+		return registers;
+	}
+
+	private static String single(List<String> operands) {
+		if (operands.size() != 1) {
+			throw new UnsupportedAssemblyException("Expected one operand"); // .align takes a fill value too
+		}
+		return operands.get(0);
+	}
+
+	/**
+	 * Split operands on the commas outside of brackets, braces and strings
+	 */
+	private static List<String> operands(String text) {
+		List<String> operands = new ArrayList<>();
+		if (text.trim().isEmpty()) {
+			return operands;
+		}
+
+		int depth = 0;
+		boolean quoted = false;
+		int start = 0;
+
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+
+			if (quoted && c == '\\') {
+				i++; // An escaped quote doesn't end the string
+			} else if (c == '"') {
+				quoted = !quoted;
+			} else if (!quoted && (c == '[' || c == '{')) {
+				depth++;
+			} else if (!quoted && (c == ']' || c == '}')) {
+				depth--;
+			} else if (!quoted && depth == 0 && c == ',') {
+				operands.add(text.substring(start, i).trim());
+				start = i + 1;
+			}
+		}
+		operands.add(text.substring(start).trim());
+
+		return operands;
+	}
+
+	/**
+	 * Decode a quoted string with its escapes
+	 */
+	private static byte[] string(String operand) {
+		String text = operand.trim();
+
+		if (text.length() < 2 || !text.startsWith("\"") || !text.endsWith("\"")) {
+			throw new InvalidAssemblyException("Invalid string " + text);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		for (int i = 1; i < text.length() - 1; i++) {
+			char c = text.charAt(i);
+
+			if (c != '\\') {
+				if (c > 0x7F) {
+					throw new UnsupportedAssemblyException("Only ASCII strings are handled");
+				}
+				bytes.write(c);
+				continue;
+			}
+
+			if (i + 1 == text.length() - 1) {
+				throw new InvalidAssemblyException("Unterminated string " + text); // The last quote is escaped
+			}
+			char escaped = text.charAt(++i);
+			switch (escaped) {
+				case 'n': bytes.write('\n'); break;
+				case 't': bytes.write('\t'); break;
+				case 'r': bytes.write('\r'); break;
+				case 'b': bytes.write('\b'); break;
+				case 'f': bytes.write('\f'); break;
+				case '\\': case '"': case '\'': bytes.write(escaped); break;
+				default:
+					if (escaped >= '0' && escaped <= '7') {
+						int value = 0;
+						int digits = 0;
+						while (digits < 3 && i < text.length() - 1 && text.charAt(i) >= '0' && text.charAt(i) <= '7') {
+							value = value * 8 + (text.charAt(i++) - '0');
+							digits++;
+						}
+						i--;
+						bytes.write(value);
+					} else {
+						throw new UnsupportedAssemblyException("Unknown escape \\" + escaped);
+					}
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * A little endian byte sink
+	 */
+	private static final class Output extends ByteArrayOutputStream {
+		void writeInt(int value) {
+			this.write(value);
+			this.write(value >>> 8);
+			this.write(value >>> 16);
+			this.write(value >>> 24);
+		}
+
+		void writeShort(int value) {
+			this.write(value);
+			this.write(value >>> 8);
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.core;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.sun.jna.Library;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.PointerByReference;
+
+import projetarm_v2.simulator.utils.NativeJarGetter;
+
+/**
+ * The Keystone library loaded in the JVM, so assembling doesn't start a kstool process.
+ */
+final class KeystoneEngine {
+
+	private static final int KS_ARCH_ARM = 1;
+	private static final int KS_MODE_ARM = 1;
+
+	private interface Keystone extends Library {
+		int ks_open(int arch, int mode, PointerByReference engine);
+
+		int ks_asm(Pointer engine, String string, long address, PointerByReference encoding, Pointer encodingSize, Pointer statementCount);
+
+		int ks_errno(Pointer engine);
+
+		String ks_strerror(int code);
+
+		void ks_free(Pointer encoding);
+	}
+
+	private final Keystone keystone;
+	private final Pointer engine;
+
+	private KeystoneEngine(Keystone keystone, Pointer engine) {
+		this.keystone = keystone;
+		this.engine = engine;
+	}
+
+	/**
+	 * Load the Keystone library extracted from the jar
+	 * @throws IOException If the library isn't in the jar
+	 * @throws UnsatisfiedLinkError If the library can't be loaded on this platform
+	 */
+	static KeystoneEngine load() throws IOException {
+		File library = NativeJarGetter.getInstance().getNativeLibrary("libkeystone");
+		Keystone keystone = Native.load(library.getAbsolutePath(), Keystone.class);
+
+		PointerByReference engine = new PointerByReference();
+		int error = keystone.ks_open(KS_ARCH_ARM, KS_MODE_ARM, engine);
+
+		if (error != 0) {
+			throw new IOException("Can't open Keystone: " + keystone.ks_strerror(error));
+		}
+
+		return new KeystoneEngine(keystone, engine.getValue());
+	}
+
+	/**
+	 * Same contract as {@link Assembler#assemble(String, long)}, a Keystone engine isn't thread-safe
+	 */
+	synchronized byte[] assemble(String assembly, long startingAddress) {
+		PointerByReference encoding = new PointerByReference();
+		Memory encodingSize = new Memory(Native.SIZE_T_SIZE);
+		Memory statementCount = new Memory(Native.SIZE_T_SIZE);
+
+		if (this.keystone.ks_asm(this.engine, assembly, startingAddress, encoding, encodingSize, statementCount) != 0) {
+			String message = this.keystone.ks_strerror(this.keystone.ks_errno(this.engine));
+			int code = message.lastIndexOf(" (");
+			throw new InvalidAssemblyException(code > 0 ? message.substring(0, code) : message);
+		}
+
+		long size = Native.SIZE_T_SIZE == 8 ? encodingSize.getLong(0) : encodingSize.getInt(0) & 0xFFFFFFFFL;
+
+		if (size == 0) {
+			return new byte[0];
+		}
+
+		try {
+			return encoding.getValue().getByteArray(0, (int) size);
+		} finally {
+			this.keystone.ks_free(encoding.getValue());
+		}
+	}
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.core;
+
+/**
+ * Where the memory of the simulated processor lives.
+ */
+public enum MemoryMode {
+	/**
+	 * The Ram holds the memory. Every load and store of the guest goes through
+	 * a hook which copies the value between the Ram and Unicorn.
+	 */
+	SHADOWED,
+
+	/**
+	 * Unicorn's mapped memory holds the memory. The Ram is a view refreshed
+	 * page by page when the Java side reads it, only the I/O ports are still
+	 * hooked.
+	 */
+	UNICORN
+}
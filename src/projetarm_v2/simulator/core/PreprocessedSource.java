@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.core;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The statements produced by the Preprocessor, with the line of the source
+ * each of them comes from.
+ */
+public final class PreprocessedSource {
+	private final List<String> statements;
+	private final int[] lines;
+
+	/**
+	 * @param statements The statements, in order
+	 * @param lines The line of the source of each statement, starting at 1
+	 */
+	public PreprocessedSource(List<String> statements, int[] lines) {
+		this.statements = Collections.unmodifiableList(statements);
+		this.lines = lines;
+	}
+
+	public List<String> getStatements() {
+		return this.statements;
+	}
+
+	/**
+	 * @return The statements separated by semicolons
+	 */
+	public String getAssembly() {
+		return String.join(";", this.statements);
+	}
+
+	/**
+	 * @return The line of the source of the statement, starting at 1
+	 */
+	public int getLine(int statement) {
+		return this.lines[statement];
+	}
+
+	public int size() {
+		return this.statements.size();
+	}
+
+	@Override
+	public String toString() {
+		return "PreprocessedSource [statements=" + this.statements.size() + "]";
+	}
+}
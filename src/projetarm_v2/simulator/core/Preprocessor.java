@@ -1,54 +1,84 @@
-/*
- * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
- *
- * This Source Code Form is subject to the terms of the Mozilla Public
- * License, v. 2.0. If a copy of the MPL was not distributed with this
- * file, You can obtain one at http://mozilla.org/MPL/2.0/.
- */
-
 package projetarm_v2.simulator.core;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import projetarm_v2.simulator.core.routines.CpuBreakpoint;
 import projetarm_v2.simulator.core.routines.CpuConsoleClear;
 
+/**
+ * Turns the source of the editor into statements the assemblers understand.
+ *
+ * The source is read once, token by token: comments are dropped, the .equ
+ * constants are substituted, the .breakpoint, .clear and .stop directives are
+ * expanded and the labels lose their digits. Constants and labels may be used
+ * before they are defined, so references are resolved once the whole source is read.
+ *
+ * Macros are defined with .macro name param, param=default ... .endm and
+ * their parameters used as \param. The labels defined in a macro get a suffix
+ * unique to each expansion. Files added with .include "path" must stand on
+ * their own: they are read once and kept as long as they don't change.
+ * The statements of a macro or an included file come from the line using it.
+ */
 public class Preprocessor {
 
-	private static String maybeLabel = "^((([a-zA-Z]|[0-9])*):)?";
-	private static final Pattern labelPattern = Pattern.compile("(([a-zA-Z]|[0-9])*):");
-	private static final Pattern equPattern = Pattern.compile(".equ +(.*),(.*)");
-	
+	private static final int MAX_EQU_DEPTH = 16;
+	private static final int MAX_EXPANSION_DEPTH = 64;
+	private static final int INCLUDE_CACHE_CAPACITY = 32;
+
+	private static final Pattern labelPattern = Pattern.compile("^\\s*([a-zA-Z0-9_]+):", Pattern.MULTILINE);
+
+	private static final Map<Path, IncludedFile> includeCache = new LinkedHashMap<Path, IncludedFile>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Path, IncludedFile> eldest) {
+			return this.size() > INCLUDE_CACHE_CAPACITY;
+		}
+	};
+
+	/**
+	 * @return The statements of the source, separated by semicolons
+	 */
 	public static String pass1(String assembly) {
-		Matcher matcher = equPattern.matcher(assembly);
-		
-		while (matcher.find()) {
-			assembly = assembly.replaceAll("#"+ matcher.group(1), "#"+matcher.group(2));
-			assembly = assembly.replaceAll("="+ matcher.group(1), "="+matcher.group(2));
-		}
-		
-		assembly = assembly
-				.replaceAll(".breakpoint", "blx #" + CpuBreakpoint.ROUTINE_ADDRESS)
-				.replaceAll(".clear", "blx #" + CpuConsoleClear.ROUTINE_ADDRESS)
-				.replaceAll("@.*", "")
-				.replaceAll(".stop", ".word 0")
-				.replaceAll(".equ +.*", "");
-
-		
-		matcher = labelPattern.matcher(assembly);
-		
-		while (matcher.find()) {
-			assembly = assembly.replaceAll(matcher.group(1), escapeDigit(matcher.group(1)));
-		}
-
-		return assembly.replaceAll("\r?\n",";");
+		return preprocess(assembly).getAssembly();
 	}
 
+	/**
+	 * @return The statements of the source with the line each of them comes from
+	 */
+	public static PreprocessedSource preprocess(String assembly) {
+		return preprocess(assembly, null);
+	}
+
+	/**
+	 * @param directory The directory of the source, where included files are looked for, or null for the working directory
+	 * @return The statements of the source with the line each of them comes from
+	 * @throws PreprocessorException If an include or a macro is invalid
+	 */
+	public static PreprocessedSource preprocess(String assembly, Path directory) {
+		Lexer lexer = new Lexer(directory, "", new ArrayDeque<>());
+		lexer.lex(assembly, 0);
+		return lexer.render();
+	}
 
 	private static String escapeDigit(String group) {
 		StringBuilder builder = new StringBuilder();
-		
+
 		for (char digit : group.toCharArray()) {
 			switch(digit) {
 				default: builder.append(digit); break;
@@ -64,7 +94,587 @@ public class Preprocessor {
 				case '9': builder.append("N"); break;
 			}
 		}
-		
+
 		return builder.toString();
 	}
+
+	/**
+	 * @return The number written with letters only, labels can't keep digits
+	 */
+	private static String letters(long number) {
+		StringBuilder letters = new StringBuilder();
+
+		do {
+			letters.append((char) ('a' + number % 26));
+			number /= 26;
+		} while (number > 0);
+
+		return letters.toString();
+	}
+
+	/**
+	 * An identifier whose replacement is known once the whole source is read
+	 */
+	private static final class Reference {
+		final String name;
+		final boolean operand;
+
+		Reference(String name, boolean operand) {
+			this.name = name;
+			this.operand = operand;
+		}
+	}
+
+	/**
+	 * A label defined in a macro, renamed at each expansion
+	 */
+	private static final class MacroLabel {
+		final String name;
+
+		MacroLabel(String name) {
+			this.name = name;
+		}
+	}
+
+	private static final class Macro {
+		final List<String> parameters;
+		final List<String> defaults;
+
+		/**
+		 * Text, parameter indexes and labels, so an expansion is a single concatenation
+		 */
+		final List<Object> body;
+
+		Macro(List<String> parameters, List<String> defaults, List<Object> body) {
+			this.parameters = parameters;
+			this.defaults = defaults;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * What an included file adds to the program, and the files it was read from
+	 */
+	private static final class IncludedFile {
+		final List<List<Object>> statements;
+		final Set<String> labels;
+		final Map<String, String> equs;
+		final Map<String, Macro> macros;
+		final Map<Path, String> versions;
+
+		IncludedFile(Lexer lexer, Map<Path, String> versions) {
+			this.statements = lexer.statements;
+			this.labels = lexer.labels;
+			this.equs = lexer.equs;
+			this.macros = lexer.macros;
+			this.versions = versions;
+		}
+
+		boolean isUpToDate() {
+			for (Map.Entry<Path, String> version : this.versions.entrySet()) {
+				if (!version.getValue().equals(version(version.getKey()))) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * @return The modification time and size of the file, or null if it can't be read
+	 */
+	private static String version(Path file) {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+			return attributes.lastModifiedTime().toMillis() + ":" + attributes.size();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static final class Lexer {
+		private final Path directory;
+		private final String labelTag;
+		private final Deque<Path> including;
+		private final Map<Path, String> versions = new HashMap<>();
+
+		private String source;
+		private int position;
+		private int line = 1;
+		private int pinnedLine;
+		private int depth;
+		private long expansions;
+
+		private final Map<String, String> equs = new HashMap<>();
+		private final Set<String> labels = new HashSet<>();
+		private final Map<String, Macro> macros = new HashMap<>();
+
+		private final List<List<Object>> statements = new ArrayList<>();
+		private final List<Integer> lines = new ArrayList<>();
+
+		private List<Object> segments = new ArrayList<>();
+		private final StringBuilder text = new StringBuilder();
+		private boolean statementStart = true;
+		private boolean mnemonicSeen = false;
+
+		/**
+		 * @param directory Where the included files are looked for
+		 * @param labelTag Tells apart the labels of the macros expanded in different files
+		 * @param including The files being read, to detect include cycles
+		 */
+		Lexer(Path directory, String labelTag, Deque<Path> including) {
+			this.directory = directory;
+			this.labelTag = labelTag;
+			this.including = including;
+		}
+
+		/**
+		 * Read the text, at the position of the current statement
+		 * @param pinnedLine The line of every statement of the text, or 0 to count its own lines
+		 */
+		void lex(String text, int pinnedLine) {
+			String source = this.source;
+			int position = this.position;
+			int line = this.line;
+			int pinned = this.pinnedLine;
+
+			this.source = text;
+			this.position = 0;
+			this.line = 1;
+			this.pinnedLine = pinnedLine;
+
+			while (this.position < this.source.length()) {
+				char c = this.source.charAt(this.position);
+
+				if (c == '\n' || c == ';') {
+					this.endStatement();
+					if (c == '\n') {
+						this.line++;
+					}
+					this.position++;
+				} else if (c == '\r') {
+					this.position++;
+				} else if (c == '@') {
+					this.skipComment();
+				} else if (c == '"' || c == '\'') {
+					this.quoted(c);
+				} else if (isIdentifierPart(c)) {
+					this.identifier();
+				} else {
+					this.text.append(c);
+					this.statementStart &= Character.isWhitespace(c);
+					this.position++;
+				}
+			}
+
+			if (source == null) {
+				this.endStatement();
+			}
+
+			this.source = source;
+			this.position = position;
+			this.line = line;
+			this.pinnedLine = pinned;
+		}
+
+		private int currentLine() {
+			return this.pinnedLine > 0 ? this.pinnedLine : this.line;
+		}
+
+		private void endStatement() {
+			this.flushText();
+			this.statements.add(this.segments);
+			this.lines.add(this.currentLine());
+
+			this.segments = new ArrayList<>();
+			this.statementStart = true;
+			this.mnemonicSeen = false;
+		}
+
+		private void flushText() {
+			if (this.text.length() > 0) {
+				this.segments.add(this.text.toString());
+				this.text.setLength(0);
+			}
+		}
+
+		private void skipComment() {
+			while (this.position < this.source.length() && this.source.charAt(this.position) != '\n') {
+				this.position++;
+			}
+		}
+
+		/**
+		 * Copy a string or a character, a semicolon inside it doesn't end the statement
+		 */
+		private void quoted(char quote) {
+			this.text.append(quote);
+			this.position++;
+
+			while (this.position < this.source.length()) {
+				char c = this.source.charAt(this.position);
+
+				if (c == '\n') {
+					return; // Unterminated, the assembler reports it
+				}
+
+				this.text.append(c);
+				this.position++;
+
+				if (c == '\\' && this.position < this.source.length()) {
+					this.text.append(this.source.charAt(this.position++));
+				} else if (c == quote) {
+					break;
+				}
+			}
+			this.statementStart = false;
+		}
+
+		private void identifier() {
+			int start = this.position;
+			while (this.position < this.source.length() && isIdentifierPart(this.source.charAt(this.position))) {
+				this.position++;
+			}
+			String token = this.source.substring(start, this.position);
+
+			if (this.statementStart && this.position < this.source.length() && this.source.charAt(this.position) == ':'
+					&& token.matches("[a-zA-Z0-9_]+")) {
+				this.labels.add(token);
+				this.flushText();
+				this.segments.add(new Reference(token, false));
+				this.text.append(':');
+				this.position++;
+				return;
+			}
+
+			if (Character.isDigit(token.charAt(0))) {
+				this.text.append(token);
+				this.statementStart = false;
+				return;
+			}
+
+			if (this.statementStart) {
+				switch (token.toLowerCase()) {
+					case ".equ":
+						this.equ();
+						return;
+					case ".macro":
+						this.macro();
+						return;
+					case ".include":
+						this.include();
+						return;
+					case ".breakpoint":
+						token = "blx #" + CpuBreakpoint.ROUTINE_ADDRESS;
+						break;
+					case ".clear":
+						token = "blx #" + CpuConsoleClear.ROUTINE_ADDRESS;
+						break;
+					case ".stop":
+						token = ".word 0";
+						break;
+					default:
+						if (this.macros.containsKey(token)) {
+							this.expand(this.macros.get(token));
+							return;
+						}
+						break;
+				}
+			}
+
+			this.flushText();
+			this.segments.add(new Reference(token, this.mnemonicSeen));
+			this.mnemonicSeen = true;
+			this.statementStart = false;
+		}
+
+		/**
+		 * @return The rest of the statement, the position is left on the character ending it
+		 */
+		private String restOfStatement() {
+			int start = this.position;
+			boolean quoted = false;
+
+			while (this.position < this.source.length()) {
+				char c = this.source.charAt(this.position);
+
+				if (c == '\n' || (!quoted && (c == ';' || c == '@'))) {
+					break;
+				}
+				if (c == '"') {
+					quoted = !quoted;
+				}
+				this.position++;
+			}
+			return this.source.substring(start, this.position);
+		}
+
+		/**
+		 * Record the constant, the statement itself becomes empty
+		 */
+		private void equ() {
+			String definition = this.restOfStatement();
+			int comma = definition.indexOf(',');
+
+			if (comma < 0) {
+				this.text.append(".equ").append(definition); // Left for the assembler to report
+				this.statementStart = false;
+				return;
+			}
+			this.equs.put(definition.substring(0, comma).trim(), definition.substring(comma + 1).trim());
+			this.statementStart = false;
+		}
+
+		private void macro() {
+			int definitionLine = this.currentLine();
+			String[] header = this.restOfStatement().trim().split("[\\s,]+");
+
+			if (header[0].isEmpty()) {
+				throw new PreprocessorException("Missing macro name", definitionLine);
+			}
+
+			List<String> parameters = new ArrayList<>();
+			List<String> defaults = new ArrayList<>();
+			for (int i = 1; i < header.length; i++) {
+				int equal = header[i].indexOf('=');
+				parameters.add(equal < 0 ? header[i] : header[i].substring(0, equal));
+				defaults.add(equal < 0 ? "" : header[i].substring(equal + 1));
+			}
+
+			// The body runs up to the line starting with .endm
+			int start = this.source.indexOf('\n', this.position);
+			int end = start;
+			while (end >= 0) {
+				int next = this.source.indexOf('\n', end + 1);
+				String bodyLine = this.source.substring(end + 1, next < 0 ? this.source.length() : next).trim();
+
+				if (bodyLine.toLowerCase().startsWith(".endm")) {
+					break;
+				}
+				this.line++;
+				end = next;
+			}
+
+			if (start < 0 || end < 0) {
+				throw new PreprocessorException("Missing .endm of macro " + header[0], definitionLine);
+			}
+
+			String body = this.source.substring(start + 1, end + 1);
+			this.position = this.source.indexOf('\n', end + 1);
+			this.line++;
+			if (this.position < 0) {
+				this.position = this.source.length();
+			}
+
+			this.macros.put(header[0], new Macro(parameters, defaults, parseBody(body, parameters)));
+			this.statementStart = false;
+		}
+
+		/**
+		 * Split the body of a macro on its parameters and its labels
+		 */
+		private static List<Object> parseBody(String body, List<String> parameters) {
+			Set<String> localLabels = new HashSet<>();
+			Matcher matcher = labelPattern.matcher(body);
+			while (matcher.find()) {
+				localLabels.add(matcher.group(1));
+			}
+
+			List<Object> parts = new ArrayList<>();
+			StringBuilder text = new StringBuilder();
+			int i = 0;
+
+			while (i < body.length()) {
+				char c = body.charAt(i);
+
+				if (!isIdentifierPart(c) && c != '\\') {
+					text.append(c);
+					i++;
+					continue;
+				}
+
+				int start = c == '\\' ? i + 1 : i;
+				int end = start;
+				while (end < body.length() && isIdentifierPart(body.charAt(end))) {
+					end++;
+				}
+				String identifier = body.substring(start, end);
+
+				if (c == '\\' && parameters.contains(identifier)) {
+					parts.add(text.toString());
+					text.setLength(0);
+					parts.add(parameters.indexOf(identifier));
+				} else if (c != '\\' && localLabels.contains(identifier)) {
+					parts.add(text.toString());
+					text.setLength(0);
+					parts.add(new MacroLabel(identifier));
+				} else {
+					text.append(body, i, Math.max(end, i + 1));
+				}
+				i = Math.max(end, i + 1);
+			}
+			parts.add(text.toString());
+
+			return parts;
+		}
+
+		private void expand(Macro macro) {
+			int invocationLine = this.currentLine();
+			String operands = this.restOfStatement().trim();
+			List<String> arguments = new ArrayList<>();
+
+			if (!operands.isEmpty()) {
+				for (String argument : operands.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)")) {
+					arguments.add(argument.trim());
+				}
+			}
+
+			if (arguments.size() > macro.parameters.size()) {
+				throw new PreprocessorException("Too many arguments for the macro", invocationLine);
+			}
+			if (this.depth >= MAX_EXPANSION_DEPTH) {
+				throw new PreprocessorException("Macros nested too deep", invocationLine);
+			}
+
+			// A label before the macro stays on its own statement
+			if (!this.segments.isEmpty()) {
+				this.endStatement();
+			}
+
+			String suffix = "zz" + this.labelTag + "m" + letters(this.expansions++);
+			StringBuilder expansion = new StringBuilder();
+
+			for (Object part : macro.body) {
+				if (part instanceof Integer) {
+					int index = (Integer) part;
+					expansion.append(index < arguments.size() && !arguments.get(index).isEmpty()
+							? arguments.get(index)
+							: macro.defaults.get(index));
+				} else if (part instanceof MacroLabel) {
+					expansion.append(((MacroLabel) part).name).append(suffix);
+				} else {
+					expansion.append((String) part);
+				}
+			}
+
+			this.depth++;
+			this.lex(expansion.toString(), invocationLine);
+			this.depth--;
+
+			this.text.setLength(0);
+			this.statementStart = true;
+			this.mnemonicSeen = false;
+		}
+
+		private void include() {
+			int includeLine = this.currentLine();
+			String operand = this.restOfStatement().trim();
+
+			if (operand.length() < 2 || !operand.startsWith("\"") || !operand.endsWith("\"")) {
+				throw new PreprocessorException("Invalid .include " + operand, includeLine);
+			}
+
+			String name = operand.substring(1, operand.length() - 1);
+			Path file = (this.directory == null ? Paths.get(name) : this.directory.resolve(name)).toAbsolutePath().normalize();
+
+			if (this.including.contains(file)) {
+				throw new PreprocessorException("Include cycle through " + file, includeLine);
+			}
+
+			IncludedFile included;
+			try {
+				included = this.read(file);
+			} catch (PreprocessorException e) {
+				throw new PreprocessorException(file.getFileName() + ": " + e.getMessage(), includeLine);
+			}
+
+			this.versions.putAll(included.versions);
+
+			if (!this.segments.isEmpty()) {
+				this.endStatement();
+			}
+			for (List<Object> statement : included.statements) {
+				this.statements.add(statement);
+				this.lines.add(includeLine);
+			}
+			this.labels.addAll(included.labels);
+			this.equs.putAll(included.equs);
+			this.macros.putAll(included.macros);
+
+			this.statementStart = false;
+		}
+
+		private IncludedFile read(Path file) {
+			synchronized (includeCache) {
+				IncludedFile cached = includeCache.get(file);
+				if (cached != null && cached.isUpToDate()) {
+					return cached;
+				}
+			}
+
+			String version = version(file);
+			String text;
+			try {
+				text = new String(Files.readAllBytes(file));
+			} catch (IOException e) {
+				throw new PreprocessorException("Can't read " + file + " (" + e.getMessage() + ")", this.currentLine());
+			}
+
+			this.including.push(file);
+			Lexer lexer = new Lexer(file.getParent(), letters(file.hashCode() & 0x7FFFFFFFL), this.including);
+			try {
+				lexer.lex(text, 0);
+			} finally {
+				this.including.pop();
+			}
+
+			lexer.versions.put(file, version);
+			IncludedFile included = new IncludedFile(lexer, lexer.versions);
+
+			synchronized (includeCache) {
+				includeCache.put(file, included);
+			}
+			return included;
+		}
+
+		PreprocessedSource render() {
+			List<String> rendered = new ArrayList<>(this.statements.size());
+			StringBuilder statement = new StringBuilder();
+
+			for (List<Object> segments : this.statements) {
+				statement.setLength(0);
+
+				for (Object segment : segments) {
+					if (segment instanceof Reference) {
+						statement.append(this.resolve((Reference) segment));
+					} else {
+						statement.append(segment);
+					}
+				}
+				rendered.add(statement.toString());
+			}
+
+			return new PreprocessedSource(rendered, this.lines.stream().mapToInt(Integer::intValue).toArray());
+		}
+
+		private String resolve(Reference reference) {
+			String name = reference.name;
+
+			if (reference.operand) {
+				// Constants may be defined with other constants
+				for (int depth = 0; depth < MAX_EQU_DEPTH && this.equs.containsKey(name); depth++) {
+					name = this.equs.get(name);
+				}
+				if (!name.equals(reference.name)) {
+					return name;
+				}
+			}
+
+			return this.labels.contains(name) ? escapeDigit(name) : name;
+		}
+
+		private static boolean isIdentifierPart(char c) {
+			return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '$';
+		}
+	}
 }
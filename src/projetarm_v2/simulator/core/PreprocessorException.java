@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.core;
+
+public class PreprocessorException extends InvalidAssemblyException {
+
+	private static final long serialVersionUID = 2302771187513520954L;
+	private final int line;
+
+	public PreprocessorException(String message, int line) {
+		super(message);
+		this.line = line;
+	}
+
+	/**
+	 * @return The line of the source, starting at 1
+	 */
+	public int getLine() {
+		return this.line;
+	}
+}
@@ -8,120 +8,768 @@
 
 package projetarm_v2.simulator.core;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import unicorn.ReadHook;
 import unicorn.Unicorn;
 import unicorn.WriteHook;
 
+/**
+ * The memory of the simulated processor.
+ *
+ * The 32 bits address space is split in 4 KiB pages which are only allocated
+ * once written. Pages are found through a two-level page table indexed by the
+ * upper bits of the address, so an access costs two array loads and never
+ * boxes the address.
+ *
+ * Pages written from the Java side (editors, routines, the loader...) are
+ * marked dirty so the Cpu only has to push those pages to Unicorn. Writes made
+ * by the guest through the write hook are already in Unicorn and are not.
+ *
+ * When attached to a Unicorn instance (see {@link MemoryMode#UNICORN}), the
+ * Ram is only a view of Unicorn's memory: pages are read back from Unicorn the
+ * first time they are accessed after {@link #invalidate()}, except the hooked
+ * range which is kept up to date by the read and write hooks.
+ *
+ * A Ram can also be backed by a single buffer (see {@link #direct(int)} and
+ * {@link #mapped(Path, long)}): the pages below the capacity of the buffer are
+ * slices of it instead of heap arrays, so large images do not grow the heap and
+ * a memory-mapped image outlives the JVM.
+ *
+ * {@link #snapshot()} shares the heap pages with the snapshot, which are
+ * copied the first time they are written afterwards, and {@link #restore}
+ * puts the snapshot's pages back, marking dirty only those which differ.
+ */
 public class Ram {
 
-	public static final int CHUNK_SIZE = 29;
+	public static final int PAGE_BITS = 12;
+	public static final int CHUNK_SIZE = 1 << PAGE_BITS; // 4 KiB
+	public static final int PAGE_MASK = CHUNK_SIZE - 1;
 	public static final int DEFAULT_RAM_SIZE = 2 * 1024 * 1024; // 2 MB
-	public final Map<Long, RamChunk> memory;
+
+	private static final int TABLE_BITS = 10;
+	private static final int TABLE_SIZE = 1 << TABLE_BITS;
+	private static final int TABLE_MASK = TABLE_SIZE - 1;
+	private static final long ADDRESS_MASK = 0xFFFFFFFFL;
+	private static final int MAX_STRING_LENGTH = Integer.MAX_VALUE - 8;
+
+	private RamChunk[][] pageTable;
+	private final List<RamChunk> pages;
+	private final Set<RamChunk> dirtyPages;
 
 	private RamChunk randomPattern;
-	
+
+	private final ByteBuffer backing;
+	private final long backedSize;
+
+	private Unicorn unicorn;
+	private long mappedSize;
+	private long hookedStart;
+	private long hookedEnd;
+	private int generation;
+
 	public Ram() {
-		this.memory = new HashMap<>();
+		this.pageTable = new RamChunk[TABLE_SIZE][];
+		this.pages = new ArrayList<>();
+		this.dirtyPages = new LinkedHashSet<>();
+		this.randomPattern = new RamChunk(0,CHUNK_SIZE);
+		this.backing = null;
+		this.backedSize = 0;
+	}
+
+	/**
+	 * Creates a Ram whose first pages are stored in the given buffer, the content of the buffer is kept.
+	 * Addresses above the last whole page of the buffer use heap pages.
+	 * @param backing The buffer holding the memory starting at address 0
+	 */
+	public Ram(ByteBuffer backing) {
+		this.pageTable = new RamChunk[TABLE_SIZE][];
+		this.pages = new ArrayList<>();
+		this.dirtyPages = new LinkedHashSet<>();
 		this.randomPattern = new RamChunk(0,CHUNK_SIZE);
+		this.backing = backing;
+		this.backedSize = (long) (backing.capacity() & ~PAGE_MASK);
+
+		for (long address = 0; address < this.backedSize; address += CHUNK_SIZE) {
+			ByteBuffer slice = backing.duplicate();
+			slice.position((int) address).limit((int) address + CHUNK_SIZE);
+			// The content is unknown to Unicorn, so every page has to be pushed once
+			this.markDirty(this.addPage(new RamChunk(address, slice.slice())));
+		}
+	}
+
+	/**
+	 * Creates a Ram stored outside of the Java heap
+	 * @param size The size in bytes of the off-heap part, rounded down to a whole number of pages
+	 */
+	public static Ram direct(int size) {
+		return new Ram(ByteBuffer.allocateDirect(size));
+	}
+
+	/**
+	 * Creates a Ram stored in a file mapped in memory, the file is created or grown if needed.
+	 * The content of the file is the initial content of the memory.
+	 * @param file The file holding the memory image
+	 * @param size The size in bytes of the image, rounded down to a whole number of pages
+	 * @throws IOException If the file can't be opened or mapped
+	 */
+	public static Ram mapped(Path file, long size) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			return new Ram(channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+		}
+	}
+
+	/**
+	 * @return The number of bytes stored in the backing buffer, 0 for a heap only Ram
+	 */
+	public long getBackedSize() {
+		return this.backedSize;
+	}
+
+	/**
+	 * Write the content of a memory-mapped Ram back to its file, does nothing for other Rams
+	 */
+	public void flush() {
+		if (!(this.backing instanceof MappedByteBuffer)) {
+			return;
+		}
+
+		if (this.unicorn != null) {
+			for (long address = 0; address < this.backedSize; address += CHUNK_SIZE) {
+				if (this.isViewOf(address)) {
+					this.refresh(this.getPage(address));
+				}
+			}
+		}
+
+		((MappedByteBuffer) this.backing).force();
 	}
 
 	public void clear() {
-		this.memory.clear();
+		RamChunk[][] previousTable = this.pageTable;
+
+		this.pageTable = new RamChunk[TABLE_SIZE][];
+		this.pages.clear();
+		synchronized (this.dirtyPages) {
+			for (RamChunk chunk : this.dirtyPages) {
+				chunk.setDirty(false); // A snapshot may still hold the page
+			}
+			this.dirtyPages.clear();
+		}
+
+		// Backed pages can't be dropped, they are reset to the pattern instead
+		for (long address = 0; address < this.backedSize; address += CHUNK_SIZE) {
+			int page = (int) (address >>> PAGE_BITS);
+			RamChunk chunk = previousTable[page >>> TABLE_BITS][page & TABLE_MASK];
+
+			chunk.setDirty(false);
+			chunk.load(this.randomPattern);
+			this.markDirty(this.addPage(chunk));
+		}
 	}
-	
+
 	public void setRandomPattern(RamChunk pattern) {
 		this.randomPattern = pattern;
 	}
-	
+
 	public RamChunk getRandomPattern() {
 		return this.randomPattern;
 	}
-	
-	public byte getByte(long myAddress) {
-		long block = myAddress / CHUNK_SIZE;
-		RamChunk chunk = this.memory.get(block);
 
-		if (chunk == null || myAddress < 0) {
-			chunk = this.randomPattern;
+	/**
+	 * Make Unicorn's memory the reference for the mapped range.
+	 * The untouched memory is filled with the random pattern.
+	 * @param u The Unicorn instance holding the memory
+	 * @param mappedSize The size of the memory mapped at address 0 in Unicorn
+	 * @param hookedStart Start of the range kept in sync by hooks (page aligned)
+	 * @param hookedEnd End (exclusive) of the range kept in sync by hooks (page aligned)
+	 */
+	public void attach(Unicorn u, long mappedSize, long hookedStart, long hookedEnd) {
+		this.unicorn = u;
+		this.mappedSize = mappedSize;
+		this.hookedStart = hookedStart;
+		this.hookedEnd = hookedEnd;
+		this.generation++;
+
+		if (!this.isPatternEmpty()) {
+			for (long address = 0; address < mappedSize; address += CHUNK_SIZE) {
+				u.mem_write(address, this.randomPattern.getChunk());
+			}
+		}
+	}
+
+	/**
+	 * Go back to holding the memory on the Java side
+	 */
+	public void detach() {
+		this.unicorn = null;
+	}
+
+	/**
+	 * Mark every page of the view as outdated, called when the guest may have written to memory
+	 */
+	public void invalidate() {
+		this.generation++;
+	}
+
+	private boolean isPatternEmpty() {
+		for (byte value : this.randomPattern.getChunk()) {
+			if (value != 0) {
+				return false;
+			}
 		}
+		return true;
+	}
 
-		return chunk.getByte((int) (myAddress % CHUNK_SIZE));
+	private boolean isViewOf(long myAddress) {
+		long address = myAddress & ADDRESS_MASK;
+		return this.unicorn != null && address < this.mappedSize && (address < this.hookedStart || address >= this.hookedEnd);
 	}
 
-	public void setByte(long myAddress, byte value) {
-		long block = myAddress / CHUNK_SIZE;
-		RamChunk chunk = this.memory.get(block);
+	/**
+	 * Read the page back from Unicorn if the guest may have changed it
+	 * @return The up to date page, a copy of the given one if it was shared and changed
+	 */
+	private RamChunk refresh(RamChunk chunk) {
+		if (chunk.generation == this.generation || chunk.isDirty()) {
+			return chunk;
+		}
+
+		byte[] content = this.unicorn.mem_read(chunk.startingAddress, CHUNK_SIZE);
+
+		if (chunk.shared && !chunk.sameContent(content)) {
+			chunk = this.unshare(chunk);
+		}
+
+		chunk.load(content);
+		chunk.generation = this.generation;
+		return chunk;
+	}
+
+	/**
+	 * Read back every page of the view, so the Ram holds what the guest wrote
+	 */
+	private void refreshView() {
+		if (this.unicorn == null) {
+			return;
+		}
+
+		for (long address = 0; address < this.mappedSize; address += CHUNK_SIZE) {
+			if (this.isViewOf(address)) {
+				this.refresh(this.getOrCreatePage(address));
+			}
+		}
+	}
+
+	/**
+	 * @return The page holding the given address, or null if it was never written
+	 */
+	private RamChunk getPage(long myAddress) {
+		int page = (int) ((myAddress & ADDRESS_MASK) >>> PAGE_BITS);
+		RamChunk[] table = this.pageTable[page >>> TABLE_BITS];
+
+		if (table == null) {
+			return null;
+		}
+
+		return table[page & TABLE_MASK];
+	}
+
+	/**
+	 * @return The page holding the given address, allocated from the random pattern if needed
+	 */
+	private RamChunk getOrCreatePage(long myAddress) {
+		RamChunk chunk = this.getPage(myAddress);
 
 		if (chunk == null) {
-			chunk = new RamChunk(myAddress - myAddress % CHUNK_SIZE, randomPattern);
-			this.memory.put(myAddress / CHUNK_SIZE, chunk);
+			chunk = this.addPage(new RamChunk(myAddress & ADDRESS_MASK & ~PAGE_MASK, this.randomPattern));
 		}
 
-		chunk.setByte((int) myAddress % CHUNK_SIZE, value);
+		return chunk;
+	}
+
+	/**
+	 * Put the page in the page table
+	 * @return The page
+	 */
+	private RamChunk addPage(RamChunk chunk) {
+		this.setPage(chunk);
+		chunk.index = this.pages.size();
+		this.pages.add(chunk);
+
+		return chunk;
+	}
+
+	private void setPage(RamChunk chunk) {
+		int page = (int) (chunk.startingAddress >>> PAGE_BITS);
+		RamChunk[] table = this.pageTable[page >>> TABLE_BITS];
+
+		if (table == null) {
+			table = new RamChunk[TABLE_SIZE];
+			this.pageTable[page >>> TABLE_BITS] = table;
+		}
+
+		table[page & TABLE_MASK] = chunk;
+	}
+
+	/**
+	 * Replace a page shared with a snapshot by a copy which can be written
+	 * @return The copy, which took the place of the page
+	 */
+	private RamChunk unshare(RamChunk chunk) {
+		RamChunk copy = new RamChunk(chunk.startingAddress, chunk);
+		copy.generation = chunk.generation;
+		copy.index = chunk.index;
+
+		this.setPage(copy);
+		this.pages.set(chunk.index, copy);
+
+		synchronized (this.dirtyPages) {
+			if (chunk.isDirty()) {
+				this.dirtyPages.remove(chunk);
+				this.dirtyPages.add(copy);
+				chunk.setDirty(false);
+				copy.setDirty(true);
+			}
+		}
+
+		return copy;
+	}
+
+	/**
+	 * @return The page holding the given address, copied first if a snapshot holds it
+	 */
+	private RamChunk getWritablePage(long myAddress) {
+		RamChunk chunk = this.getOrCreatePage(myAddress);
+
+		if (chunk.shared) {
+			chunk = this.unshare(chunk);
+		}
+
+		return chunk;
+	}
+
+	/**
+	 * @return The page holding the given address, marked as changed from the Java side
+	 */
+	private RamChunk getDirtyPage(long myAddress) {
+		RamChunk chunk = this.getOrCreatePage(myAddress);
+
+		if (this.isViewOf(myAddress)) {
+			chunk = this.refresh(chunk);
+		}
+
+		if (chunk.shared) {
+			chunk = this.unshare(chunk);
+		}
+
+		if (!chunk.isDirty()) {
+			this.markDirty(chunk);
+		}
+
+		return chunk;
+	}
+
+	private void markDirty(RamChunk chunk) {
+		synchronized (this.dirtyPages) {
+			if (!chunk.isDirty()) {
+				chunk.setDirty(true);
+				this.dirtyPages.add(chunk);
+			}
+		}
+	}
+
+	/**
+	 * Mark every allocated page as dirty, used when the content has to be pushed to a new Unicorn instance
+	 */
+	public void markAllDirty() {
+		for (RamChunk chunk : this.pages) {
+			this.markDirty(chunk);
+		}
+	}
+
+	/**
+	 * Get the pages written from the Java side since the last call and reset their dirty state
+	 * @return The dirty pages
+	 */
+	public List<RamChunk> takeDirtyChunks() {
+		synchronized (this.dirtyPages) {
+			List<RamChunk> dirty = new ArrayList<>(this.dirtyPages);
+
+			for (RamChunk chunk : dirty) {
+				chunk.setDirty(false);
+			}
+			this.dirtyPages.clear();
+
+			return dirty;
+		}
+	}
+
+	private RamChunk getPageOrPattern(long myAddress) {
+		if (this.isViewOf(myAddress)) {
+			return this.refresh(this.getOrCreatePage(myAddress));
+		}
+
+		RamChunk chunk = this.getPage(myAddress);
+
+		if (chunk == null) {
+			return this.randomPattern;
+		}
+
+		return chunk;
+	}
+
+	public byte getByte(long myAddress) {
+		return this.getPageOrPattern(myAddress).getByte((int) myAddress & PAGE_MASK);
+	}
+
+	public void setByte(long myAddress, byte value) {
+		this.getDirtyPage(myAddress).setByte((int) myAddress & PAGE_MASK, value);
 	}
 
 	/**
 	 * Get a 16 bits half-word (Little Endian) from the memory
-	 * 
+	 *
 	 * @param myAddress The address where to get the half-word
 	 * @return The half-word stored at the specified address
 	 */
 	public short getHWord(long myAddress) {
+		int offset = (int) myAddress & PAGE_MASK;
+
+		if (offset <= CHUNK_SIZE - 2) {
+			return this.getPageOrPattern(myAddress).getHWord(offset);
+		}
 
 		return (short) ((getByte(myAddress) & 0xFF) | (getByte(myAddress + 1) & 0xFF) << 8);
 	}
 
 	/**
 	 * Set a 16 bits half-word (Little Endian) in the memory
-	 * 
+	 *
 	 * @param myAddress The address where to set the half-word
 	 * @param myHWord   The half-word to set in the memory
 	 */
 	public void setHWord(long myAddress, short myHWord) {
+		int offset = (int) myAddress & PAGE_MASK;
 
-		byte[] bytes = new byte[2];
-
-		bytes[0] = (byte) (myHWord & 0xff);
-		bytes[1] = (byte) ((myHWord >> 8) & 0xff);
-
-		this.setByte(myAddress + 1, bytes[1]);
-		this.setByte(myAddress, bytes[0]);
+		if (offset <= CHUNK_SIZE - 2) {
+			this.getDirtyPage(myAddress).setHWord(offset, myHWord);
+			return;
+		}
 
+		this.setByte(myAddress + 1, (byte) ((myHWord >> 8) & 0xff));
+		this.setByte(myAddress, (byte) (myHWord & 0xff));
 	}
 
+	/**
+	 * Get a 32 bits word (Little Endian) from the memory
+	 *
+	 * @param myAddress The address where to get the word
+	 * @return The word stored at the specified address
+	 */
 	public int getValue(long myAddress) {
+		int offset = (int) myAddress & PAGE_MASK;
+
+		if (offset <= CHUNK_SIZE - 4) {
+			return this.getPageOrPattern(myAddress).getValue(offset);
+		}
 
 		return ((getByte(myAddress) & 0xFF) | (getByte(myAddress + 1) & 0xFF) << 8
 				| (getByte(myAddress + 2) & 0xFF) << 16 | (getByte(myAddress + 3) & 0xFF) << 24);
-
 	}
 
+	/**
+	 * Set a 32 bits word (Little Endian) in the memory
+	 *
+	 * @param myAddress The address where to set the word
+	 * @param myWord    The word to set in the memory
+	 */
 	public void setValue(long myAddress, int myWord) {
+		int offset = (int) myAddress & PAGE_MASK;
 
-		byte[] bytes = new byte[4];
-
-		// TODO We could loop the whole method
 		// TODO If we implement the usage of Big Endian on the processor, we need to
 		// check this here
 
-		bytes[0] = (byte) (myWord);
-		bytes[1] = (byte) (myWord >> 8);
-		bytes[2] = (byte) (myWord >> 16);
-		bytes[3] = (byte) (myWord >> 24);
+		if (offset <= CHUNK_SIZE - 4) {
+			this.getDirtyPage(myAddress).setValue(offset, myWord);
+			return;
+		}
+
+		// The word straddles two pages
+		this.setByte(myAddress + 3, (byte) (myWord >> 24));
+		this.setByte(myAddress + 2, (byte) (myWord >> 16));
+		this.setByte(myAddress + 1, (byte) (myWord >> 8));
+		this.setByte(myAddress, (byte) (myWord));
+	}
+
+	/**
+	 * @return The number of bytes from the address to the end of its page, at most length
+	 */
+	private static int spanInPage(long myAddress, long length) {
+		return (int) Math.min(CHUNK_SIZE - ((int) myAddress & PAGE_MASK), length);
+	}
+
+	/**
+	 * Copy a range of the memory into an array
+	 * @param myAddress The address of the first byte to read
+	 * @param dest The destination array, filled entirely
+	 */
+	public void read(long myAddress, byte[] dest) {
+		this.read(myAddress, dest, 0, dest.length);
+	}
+
+	/**
+	 * Copy a range of the memory into an array
+	 * @param myAddress The address of the first byte to read
+	 * @param dest The destination array
+	 * @param offset The offset of the first byte in the destination
+	 * @param length The number of bytes to read
+	 */
+	public void read(long myAddress, byte[] dest, int offset, int length) {
+		while (length > 0) {
+			int span = spanInPage(myAddress, length);
+			this.getPageOrPattern(myAddress).read((int) myAddress & PAGE_MASK, dest, offset, span);
+			myAddress += span;
+			offset += span;
+			length -= span;
+		}
+	}
 
-		this.setByte(myAddress + 3, bytes[3]);
-		this.setByte(myAddress + 2, bytes[2]);
-		this.setByte(myAddress + 1, bytes[1]);
-		this.setByte(myAddress, bytes[0]);
+	/**
+	 * Copy a range of the memory into a buffer, as many bytes as the buffer has remaining
+	 * @param myAddress The address of the first byte to read
+	 * @param dest The destination buffer
+	 */
+	public void read(long myAddress, ByteBuffer dest) {
+		while (dest.hasRemaining()) {
+			int span = spanInPage(myAddress, dest.remaining());
+			ByteBuffer part = dest.duplicate();
+			part.limit(part.position() + span);
+			this.getPageOrPattern(myAddress).read((int) myAddress & PAGE_MASK, part);
+			dest.position(part.position());
+			myAddress += span;
+		}
+	}
 
+	/**
+	 * Copy an array into the memory
+	 * @param myAddress The address of the first byte to write
+	 * @param src The bytes to write
+	 */
+	public void write(long myAddress, byte[] src) {
+		this.write(myAddress, src, 0, src.length);
+	}
+
+	/**
+	 * Copy a part of an array into the memory
+	 * @param myAddress The address of the first byte to write
+	 * @param src The source array
+	 * @param offset The offset of the first byte in the source
+	 * @param length The number of bytes to write
+	 */
+	public void write(long myAddress, byte[] src, int offset, int length) {
+		while (length > 0) {
+			int span = spanInPage(myAddress, length);
+			this.getDirtyPage(myAddress).write((int) myAddress & PAGE_MASK, src, offset, span);
+			myAddress += span;
+			offset += span;
+			length -= span;
+		}
+	}
+
+	/**
+	 * Copy the remaining bytes of a buffer into the memory
+	 * @param myAddress The address of the first byte to write
+	 * @param src The source buffer
+	 */
+	public void write(long myAddress, ByteBuffer src) {
+		while (src.hasRemaining()) {
+			int span = spanInPage(myAddress, src.remaining());
+			ByteBuffer part = src.duplicate();
+			part.limit(part.position() + span);
+			this.getDirtyPage(myAddress).write((int) myAddress & PAGE_MASK, part);
+			src.position(part.position());
+			myAddress += span;
+		}
+	}
+
+	/**
+	 * Set a range of the memory to the same value
+	 * @param myAddress The address of the first byte to set
+	 * @param length The number of bytes to set
+	 * @param value The value of every byte
+	 */
+	public void fill(long myAddress, long length, byte value) {
+		while (length > 0) {
+			int span = spanInPage(myAddress, length);
+			this.getDirtyPage(myAddress).fill((int) myAddress & PAGE_MASK, span, value);
+			myAddress += span;
+			length -= span;
+		}
+	}
+
+	/**
+	 * Copy a range of the memory to another address, the ranges may overlap
+	 * @param source The address of the first byte to copy
+	 * @param destination The address where the first byte is copied
+	 * @param length The number of bytes to copy
+	 */
+	public void copy(long source, long destination, long length) {
+		byte[] buffer = new byte[(int) Math.min(CHUNK_SIZE, length)];
+		boolean backward = destination > source && destination < source + length;
+
+		for (long done = 0; done < length; done += buffer.length) {
+			int size = (int) Math.min(buffer.length, length - done);
+			long offset = backward ? length - done - size : done;
+
+			this.read(source + offset, buffer, 0, size);
+			this.write(destination + offset, buffer, 0, size);
+		}
+	}
+
+	/**
+	 * Find the first byte equal to value, such as the NUL terminator of a string
+	 * @param myAddress The address where the search starts
+	 * @param value The value to find
+	 * @param maxLength The number of bytes to search
+	 * @return The distance from myAddress to the byte, or -1 if it isn't in the range
+	 */
+	public long indexOf(long myAddress, byte value, long maxLength) {
+		long distance = 0;
+
+		while (distance < maxLength) {
+			int span = spanInPage(myAddress + distance, maxLength - distance);
+			int offset = (int) (myAddress + distance) & PAGE_MASK;
+			int found = this.getPageOrPattern(myAddress + distance).indexOf(offset, span, value);
+
+			if (found >= 0) {
+				return distance + found - offset;
+			}
+			distance += span;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Read a NUL terminated string
+	 * @param myAddress The address of the first character
+	 * @return The bytes of the string, without the terminator
+	 */
+	public byte[] readString(long myAddress) {
+		long length = this.indexOf(myAddress, (byte) 0, MAX_STRING_LENGTH);
+
+		if (length < 0) {
+			throw new IllegalStateException("No string terminator after 0x" + Long.toHexString(myAddress & ADDRESS_MASK));
+		}
+
+		byte[] string = new byte[(int) length];
+		this.read(myAddress, string);
+		return string;
+	}
+
+	/**
+	 * Take the content of the memory, in constant time for the heap pages which are shared until written.
+	 * When attached to Unicorn the view is read back first.
+	 * @return The snapshot, which stays valid whatever is written afterwards
+	 */
+	public RamSnapshot snapshot() {
+		this.refreshView();
+
+		RamChunk[] saved = new RamChunk[this.pages.size()];
+
+		for (int i = 0; i < saved.length; i++) {
+			RamChunk chunk = this.pages.get(i);
+
+			if (chunk.startingAddress < this.backedSize) {
+				saved[i] = new RamChunk(chunk.startingAddress, chunk);
+			} else {
+				chunk.shared = true;
+				saved[i] = chunk;
+			}
+		}
+
+		return new RamSnapshot(saved);
+	}
+
+	/**
+	 * Put the memory back in the state of the snapshot.
+	 * Only the pages which differ from the snapshot are marked dirty, the pages allocated since are
+	 * reset to the random pattern.
+	 * @param snapshot A snapshot of this Ram
+	 */
+	public void restore(RamSnapshot snapshot) {
+		this.refreshView();
+
+		RamChunk[][] previousTable = this.pageTable;
+		List<RamChunk> previousPages = new ArrayList<>(this.pages);
+
+		this.pageTable = new RamChunk[TABLE_SIZE][];
+		this.pages.clear();
+
+		List<RamChunk> changed = new ArrayList<>();
+
+		for (RamChunk saved : snapshot.pages) {
+			int page = (int) (saved.startingAddress >>> PAGE_BITS);
+			RamChunk[] table = previousTable[page >>> TABLE_BITS];
+			RamChunk current = table == null ? null : table[page & TABLE_MASK];
+
+			if (saved.startingAddress < this.backedSize) {
+				// The backing buffer can't be swapped, its page is overwritten if needed
+				if (!current.sameContent(saved)) {
+					current.load(saved);
+					changed.add(current);
+				}
+				this.addPage(current);
+			} else {
+				if (current != saved) {
+					changed.add(saved);
+				}
+				saved.generation = this.generation;
+				this.addPage(saved);
+			}
+		}
+
+		for (RamChunk chunk : previousPages) {
+			if (this.getPage(chunk.startingAddress) != null) {
+				continue;
+			}
+
+			if (chunk.sameContent(this.randomPattern)) {
+				this.addPage(chunk); // Already as if it was never allocated
+			} else {
+				changed.add(this.addPage(new RamChunk(chunk.startingAddress, this.randomPattern)));
+			}
+		}
+
+		synchronized (this.dirtyPages) {
+			// The pages which were dropped mustn't be pushed to Unicorn anymore
+			for (RamChunk chunk : this.dirtyPages) {
+				if (this.getPage(chunk.startingAddress) != chunk) {
+					chunk.setDirty(false);
+				}
+			}
+			this.dirtyPages.removeIf(chunk -> !chunk.isDirty());
+		}
+
+		for (RamChunk chunk : changed) {
+			this.markDirty(chunk);
+		}
 	}
 
 	public Collection<RamChunk> getRamChunks() {
-		return this.memory.values();
+		return Collections.unmodifiableList(this.pages);
 	}
 
 	public ReadHook getNewReadHook() {
@@ -133,7 +781,7 @@ public class Ram {
 	}
 
 	public String toString() {
-		return this.memory.toString();
+		return this.pages.toString();
 	}
 
 	private class ReadHookRam implements ReadHook {
@@ -164,8 +812,16 @@ public class Ram {
 		}
 
 		public void hook(Unicorn u, long address, int size, long value, Object user_data) {
+			// Unicorn already holds the written value, so the pages are not marked dirty
+			int offset = (int) address & PAGE_MASK;
+
+			if (size == 4 && offset <= CHUNK_SIZE - 4) {
+				this.ram.getWritablePage(address).setValue(offset, (int) value);
+				return;
+			}
+
 			for (int i = 0; i < size; i++) {
-				this.ram.setByte(address+i, (byte)((value >> 8*i) & 0xFF));
+				this.ram.getWritablePage(address+i).setByte((int) (address+i) & PAGE_MASK, (byte)((value >> 8*i) & 0xFF));
 			}
 		}
 	}
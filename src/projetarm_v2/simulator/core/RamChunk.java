@@ -8,38 +8,209 @@
 
 package projetarm_v2.simulator.core;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
+/**
+ * A page of the Ram, stored either in a heap array or in a slice of an
+ * off-heap buffer. Multi-byte accessors read and write little endian values
+ * and expect the whole value to fit inside the page.
+ *
+ * A page held by a {@link RamSnapshot} is shared: the Ram copies it before
+ * changing it, so the snapshot keeps the content it had when it was taken.
+ */
 public class RamChunk {
 	public final long startingAddress;
-	private byte[] bytes;
-	
+	private final ByteBuffer bytes;
+	private volatile boolean dirty;
+	int generation;
+	boolean shared;
+	int index; // The position of the page in the pages of its Ram
+
 	public RamChunk(long startingAddress, RamChunk ramChunk) {
-		this.startingAddress = startingAddress;
-		byte[] pattern = ramChunk.getChunk(); 
-		this.bytes = new byte[pattern.length];
-		System.arraycopy(pattern, 0, this.bytes, 0, this.bytes.length);
+		this(startingAddress, ramChunk.size());
+		this.load(ramChunk);
 	}
-	
+
 	public RamChunk(long startingAddress, int size) {
+		this(startingAddress, ByteBuffer.wrap(new byte[size]));
+	}
+
+	/**
+	 * Creates a page stored in the given buffer, the page uses the whole capacity of the buffer
+	 * @param startingAddress The address of the first byte of the page
+	 * @param buffer The storage of the page
+	 */
+	public RamChunk(long startingAddress, ByteBuffer buffer) {
 		this.startingAddress = startingAddress;
-		this.bytes = new byte[size];
+		this.bytes = buffer.order(ByteOrder.LITTLE_ENDIAN);
 	}
-	
+
+	public int size() {
+		return this.bytes.capacity();
+	}
+
 	public byte getByte(int offset) {
-		return this.bytes[offset];
+		return this.bytes.get(offset);
 	}
-	
+
 	public void setByte(int offset, byte value) {
-		this.bytes[offset] = value;
+		this.bytes.put(offset, value);
+	}
+
+	public short getHWord(int offset) {
+		return this.bytes.getShort(offset);
+	}
+
+	public void setHWord(int offset, short value) {
+		this.bytes.putShort(offset, value);
+	}
+
+	public int getValue(int offset) {
+		return this.bytes.getInt(offset);
+	}
+
+	public void setValue(int offset, int value) {
+		this.bytes.putInt(offset, value);
+	}
+
+	/**
+	 * Copy bytes of the page into an array
+	 * @param offset The offset of the first byte in the page
+	 * @param dest The destination array
+	 * @param destOffset The offset of the first byte in the destination
+	 * @param length The number of bytes to copy
+	 */
+	public void read(int offset, byte[] dest, int destOffset, int length) {
+		ByteBuffer source = this.bytes.duplicate();
+		source.position(offset);
+		source.get(dest, destOffset, length);
+	}
+
+	/**
+	 * Copy bytes of the page into a buffer, as many as the buffer has remaining
+	 * @param offset The offset of the first byte in the page
+	 */
+	public void read(int offset, ByteBuffer dest) {
+		ByteBuffer source = this.bytes.duplicate();
+		source.position(offset).limit(offset + dest.remaining());
+		dest.put(source);
+	}
+
+	/**
+	 * Copy bytes of an array into the page
+	 * @param offset The offset of the first byte in the page
+	 * @param src The source array
+	 * @param srcOffset The offset of the first byte in the source
+	 * @param length The number of bytes to copy
+	 */
+	public void write(int offset, byte[] src, int srcOffset, int length) {
+		ByteBuffer destination = this.bytes.duplicate();
+		destination.position(offset);
+		destination.put(src, srcOffset, length);
 	}
-	
+
+	/**
+	 * Copy the remaining bytes of a buffer into the page
+	 * @param offset The offset of the first byte in the page
+	 */
+	public void write(int offset, ByteBuffer src) {
+		ByteBuffer destination = this.bytes.duplicate();
+		destination.position(offset);
+		destination.put(src);
+	}
+
+	/**
+	 * Set a range of the page to the same value
+	 */
+	public void fill(int offset, int length, byte value) {
+		if (this.bytes.hasArray()) {
+			int start = this.bytes.arrayOffset() + offset;
+			Arrays.fill(this.bytes.array(), start, start + length, value);
+			return;
+		}
+
+		for (int i = offset; i < offset + length; i++) {
+			this.bytes.put(i, value);
+		}
+	}
+
+	/**
+	 * @return The offset in the page of the first byte equal to value in the range, or -1
+	 */
+	public int indexOf(int offset, int length, byte value) {
+		for (int i = offset; i < offset + length; i++) {
+			if (this.bytes.get(i) == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The content of the page, this is the page itself for heap pages and a copy for off-heap pages
+	 */
 	public byte[] getChunk() {
-		return this.bytes;
+		if (this.bytes.hasArray() && this.bytes.arrayOffset() == 0 && this.bytes.array().length == this.size()) {
+			return this.bytes.array();
+		}
+
+		byte[] copy = new byte[this.size()];
+		this.bytes.duplicate().get(copy);
+		return copy;
+	}
+
+	/**
+	 * @return A view of the page with its own position and limit
+	 */
+	public ByteBuffer getBuffer() {
+		return this.bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Overwrite the page with the given bytes
+	 */
+	public void load(byte[] content) {
+		this.bytes.duplicate().put(content, 0, Math.min(content.length, this.size()));
+	}
+
+	/**
+	 * Overwrite the page with the content of another page
+	 */
+	public void load(RamChunk chunk) {
+		ByteBuffer source = chunk.bytes.duplicate();
+		source.limit(Math.min(source.capacity(), this.size()));
+		this.bytes.duplicate().put(source);
+	}
+
+	/**
+	 * @return true if both pages hold the same bytes
+	 */
+	boolean sameContent(RamChunk chunk) {
+		return this.bytes.equals(chunk.bytes);
+	}
+
+	/**
+	 * @return true if the page holds the given bytes
+	 */
+	boolean sameContent(byte[] content) {
+		return this.bytes.equals(ByteBuffer.wrap(content));
+	}
+
+	/**
+	 * @return true if the page was changed from the Java side since it was last pushed to Unicorn
+	 */
+	public boolean isDirty() {
+		return this.dirty;
 	}
-	
+
+	void setDirty(boolean dirty) {
+		this.dirty = dirty;
+	}
+
 	@Override
 	public String toString() {
-		return "RamChunk [startingAddress=0x" + Long.toHexString(startingAddress) +", bytes=" + Arrays.toString(bytes) + "]";
+		return "RamChunk [startingAddress=0x" + Long.toHexString(startingAddress) +", bytes=" + Arrays.toString(this.getChunk()) + "]";
 	}
 }
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.core;
+
+/**
+ * The content of a Ram at a given time, see {@link Ram#snapshot()}.
+ *
+ * Heap pages are shared with the Ram until it writes to them, so a snapshot
+ * only costs an array of references. Pages stored in the backing buffer of
+ * the Ram can't be shared and are copied.
+ */
+public final class RamSnapshot {
+	final RamChunk[] pages;
+
+	RamSnapshot(RamChunk[] pages) {
+		this.pages = pages;
+	}
+
+	/**
+	 * @return The number of pages allocated when the snapshot was taken
+	 */
+	public int getPageCount() {
+		return this.pages.length;
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.core;
+
+import java.util.Arrays;
+
+/**
+ * The values of R0 to R15 and of the CPSR read at the same time, so views can
+ * show every register without going back to Unicorn for each value.
+ */
+public final class RegisterSnapshot {
+	private final int[] registers;
+	private final int cpsr;
+
+	public RegisterSnapshot(int[] registers, int cpsr) {
+		this.registers = Arrays.copyOf(registers, 16);
+		this.cpsr = cpsr;
+	}
+
+	/**
+	 * @param registerNumber The register, from 0 to 15
+	 * @return The value of the register
+	 */
+	public int getRegister(int registerNumber) {
+		return this.registers[registerNumber];
+	}
+
+	public int getCpsr() {
+		return this.cpsr;
+	}
+
+	public boolean n() {
+		return (this.cpsr & 0x80000000) != 0;
+	}
+
+	public boolean z() {
+		return (this.cpsr & 0x40000000) != 0;
+	}
+
+	public boolean c() {
+		return (this.cpsr & 0x20000000) != 0;
+	}
+
+	public boolean v() {
+		return (this.cpsr & 0x10000000) != 0;
+	}
+
+	public boolean q() {
+		return (this.cpsr & 0x8000000) != 0;
+	}
+
+	/**
+	 * @return The flags, formatted like {@link Cpsr#toString()}
+	 */
+	public String flagsToString() {
+		return Cpsr.toString(this.cpsr);
+	}
+
+	@Override
+	public String toString() {
+		return "RegisterSnapshot [registers=" + Arrays.toString(this.registers) + ", cpsr=" + this.flagsToString() + "]";
+	}
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.core;
+
+/**
+ * Why a budgeted run of the Cpu returned.
+ */
+public enum StopReason {
+	/**
+	 * The instruction count or the time slice ran out, the program can be resumed
+	 */
+	BUDGET_EXHAUSTED,
+
+	/**
+	 * The Cpu reached a zero word (.stop)
+	 */
+	STOP_WORD,
+
+	/**
+	 * The Cpu reached the end of the loaded program
+	 */
+	END_OF_PROGRAM,
+
+	/**
+	 * The Cpu reached a breakpoint, the program can be resumed
+	 */
+	BREAKPOINT,
+
+	/**
+	 * Unicorn raised an exception (invalid instruction, unmapped memory...)
+	 */
+	FAULT,
+
+	/**
+	 * The program called the exit SVC
+	 */
+	SVC_HALT,
+
+	/**
+	 * The execution was interrupted from another thread or by a routine
+	 */
+	INTERRUPTED
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.core;
+
+/**
+ * Thrown by the {@link JavaAssembler} for a statement it doesn't handle, which Keystone has to assemble
+ */
+public class UnsupportedAssemblyException extends RuntimeException {
+
+	private static final long serialVersionUID = 4870151832914036518L;
+
+	private final int statement;
+
+	public UnsupportedAssemblyException(String message) {
+		this(message, -1);
+	}
+
+	/**
+	 * @param message What isn't handled
+	 * @param statement The index of the statement in the assembled ones
+	 */
+	public UnsupportedAssemblyException(String message, int statement) {
+		super(message);
+		this.statement = statement;
+	}
+
+	/**
+	 * @return The index of the statement in the assembled ones, -1 if unknown
+	 */
+	public int getStatement() {
+		return this.statement;
+	}
+
+}
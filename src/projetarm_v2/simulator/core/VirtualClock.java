@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.core;
+
+import java.util.function.LongSupplier;
+
+/**
+ * The time seen by the program and the I/O components.
+ *
+ * In {@link Mode#REAL} the clock follows the wall clock and a sleep blocks the
+ * Cpu. In the other modes the time is virtual: every executed instruction lasts
+ * a fixed time and a sleep adds its duration to the clock, so a program waiting
+ * for time doesn't wait. {@link Mode#FAST} never blocks, {@link Mode#SCALED}
+ * still blocks during sleeps so the virtual time goes the given times faster
+ * than the real one.
+ *
+ * The instructions are not counted in turbo mode, where the virtual time only
+ * goes on with the sleeps.
+ */
+public class VirtualClock {
+	public enum Mode {
+		REAL, FAST, SCALED
+	}
+
+	public static final long DEFAULT_INSTRUCTION_NANOS = 100; // 10 MHz
+	private static final long POLL_MILLIS = 10;
+
+	private final LongSupplier instructionCount;
+	private volatile Mode mode;
+	private volatile double scale;
+	private volatile long instructionNanos;
+
+	private long startEpochMillis;
+	private long startRealNanos;
+	private long sleptNanos;
+	private long wakeUps;
+
+	/**
+	 * @param instructionCount Gives the number of instructions executed by the Cpu
+	 */
+	public VirtualClock(LongSupplier instructionCount) {
+		this.instructionCount = instructionCount;
+		this.mode = Mode.REAL;
+		this.scale = 1;
+		this.instructionNanos = DEFAULT_INSTRUCTION_NANOS;
+		this.reset();
+	}
+
+	/**
+	 * Start again from the current date
+	 */
+	public synchronized void reset() {
+		this.startEpochMillis = System.currentTimeMillis();
+		this.startRealNanos = System.nanoTime();
+		this.sleptNanos = 0;
+		this.notifyAll();
+	}
+
+	public Mode getMode() {
+		return this.mode;
+	}
+
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	public double getScale() {
+		return this.scale;
+	}
+
+	/**
+	 * @param scale How many times faster than the real time the virtual time goes in {@link Mode#SCALED}
+	 */
+	public void setScale(double scale) {
+		if (scale <= 0) {
+			throw new IllegalArgumentException("The scale must be positive");
+		}
+		this.scale = scale;
+	}
+
+	/**
+	 * @param instructionNanos The virtual duration of an instruction, in nanoseconds
+	 */
+	public void setInstructionNanos(long instructionNanos) {
+		this.instructionNanos = instructionNanos;
+	}
+
+	/**
+	 * @return The time passed since the clock started, in nanoseconds
+	 */
+	public synchronized long nanoTime() {
+		if (this.mode == Mode.REAL) {
+			return System.nanoTime() - this.startRealNanos;
+		}
+		return this.instructionCount.getAsLong() * this.instructionNanos + this.sleptNanos;
+	}
+
+	/**
+	 * @return The date of the clock, in seconds since the epoch
+	 */
+	public long epochSecond() {
+		return (this.startEpochMillis + this.nanoTime() / 1_000_000) / 1000;
+	}
+
+	/**
+	 * Let the given time pass for the program, called by the Cpu.
+	 * The sleep ends early when the Cpu is interrupted, see {@link #wakeUp()}.
+	 * @param millis The duration of the sleep
+	 */
+	public synchronized void sleep(long millis) {
+		this.pass(millis * 1_000_000);
+	}
+
+	/**
+	 * Let the time pass for the idle program up to the given time, called by the Cpu.
+	 * Ends early when the Cpu is interrupted, see {@link #wakeUp()}.
+	 * @param nanoTime The time where the program wakes up, see {@link #nanoTime()}
+	 */
+	public synchronized void idleUntil(long nanoTime) {
+		this.pass(Math.max(0, nanoTime - this.nanoTime()));
+	}
+
+	/**
+	 * Move the clock up to the given time without waiting, for an idle time executed again
+	 * @param nanoTime The time where the program wakes up, see {@link #nanoTime()}
+	 */
+	public synchronized void skipUntil(long nanoTime) {
+		if (this.mode != Mode.REAL) {
+			this.sleptNanos += Math.max(0, nanoTime - this.nanoTime());
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * Add the duration of a sleep to the clock without waiting, for a sleep executed again
+	 * @param millis The duration of the sleep
+	 */
+	public synchronized void skip(long millis) {
+		if (this.mode != Mode.REAL) {
+			this.sleptNanos += millis * 1_000_000;
+			this.notifyAll();
+		}
+	}
+
+	private void pass(long nanos) {
+		switch (this.mode) {
+			case REAL:
+				this.waitReal(nanos);
+				break;
+			case SCALED:
+				this.sleptNanos += (long) (this.waitReal((long) (nanos / this.scale)) * this.scale);
+				break;
+			default:
+				this.sleptNanos += nanos;
+		}
+
+		this.notifyAll();
+	}
+
+	/**
+	 * Block the calling thread, which isn't the Cpu's, while the given time passes on the clock
+	 * @param millis The duration to wait
+	 */
+	public synchronized void waitFor(long millis) {
+		long deadline = this.nanoTime() + millis * 1_000_000;
+
+		try {
+			for (long now = this.nanoTime(); now < deadline; now = this.nanoTime()) {
+				// The virtual time goes on with the instructions, which don't notify
+				this.wait(this.mode == Mode.REAL ? Math.max(1, (deadline - now) / 1_000_000) : POLL_MILLIS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * End the current sleep of the Cpu
+	 */
+	public synchronized void wakeUp() {
+		this.wakeUps++;
+		this.notifyAll();
+	}
+
+	synchronized long getSleptNanos() {
+		return this.sleptNanos;
+	}
+
+	synchronized void setSleptNanos(long sleptNanos) {
+		this.sleptNanos = sleptNanos;
+	}
+
+	/**
+	 * @return The real time waited, in nanoseconds
+	 */
+	private long waitReal(long nanos) {
+		long start = System.nanoTime();
+		long wakeUps = this.wakeUps;
+
+		try {
+			for (long waited = 0; waited < nanos && wakeUps == this.wakeUps; waited = System.nanoTime() - start) {
+				long remaining = nanos - waited;
+				this.wait(remaining / 1_000_000, (int) (remaining % 1_000_000));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		return Math.min(nanos, System.nanoTime() - start);
+	}
+}
@@ -9,22 +9,28 @@
 package projetarm_v2.simulator.core.io;
 
 import projetarm_v2.simulator.core.RamRegister;
+import projetarm_v2.simulator.core.VirtualClock;
 
 public class IOButton extends IOComponent {
+	public static final long PRESS_MILLIS = 1000;
 
-	protected IOButton(RamRegister port, int shift, int portNb) {
+	private final VirtualClock clock;
+
+	protected IOButton(RamRegister port, int shift, int portNb, VirtualClock clock) {
 		super(port, shift, portNb);
+		this.clock = clock;
 	}
 	
+	/**
+	 * Press the button, it is released once {@link #PRESS_MILLIS} passed on the clock of the program
+	 */
 	public synchronized void push() {
-		new Thread(() -> {
+		Thread release = new Thread(() -> {
 			this.set(true);
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
-			}
+			this.clock.waitFor(PRESS_MILLIS);
 			this.set(false);
-		}).start();
+		});
+		release.setDaemon(true); // The virtual time may not go on anymore
+		release.start();
 	}
 }
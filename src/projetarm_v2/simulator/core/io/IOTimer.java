@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.core.io;
+
+import projetarm_v2.simulator.core.VirtualClock;
+import unicorn.ReadHook;
+import unicorn.Unicorn;
+import unicorn.WriteHook;
+
+/**
+ * A countdown timer mapped after the I/O ports, which can interrupt the Cpu.
+ *
+ * Its 32-bit registers, written as whole words:
+ * - LOAD    (+0x0) the number of microseconds to count down, writing it restarts the count
+ * - VALUE   (+0x4) the microseconds left, read only
+ * - CONTROL (+0x8) {@link #ENABLE} starts counting down from LOAD, {@link #IRQ_ENABLE}
+ *                  raises an IRQ when the count reaches zero, {@link #PERIODIC} counts
+ *                  down again from LOAD instead of stopping
+ * - STATUS  (+0xC) bit 0 is set when the count reaches zero, writing 1 clears it
+ *
+ * The timer counts the time of the program's clock, so with a virtual clock it is
+ * driven by the executed instructions. While STATUS and IRQ_ENABLE are set, the Cpu
+ * takes an IRQ (vector 0x18) as soon as the I bit of the CPSR is clear.
+ */
+public class IOTimer {
+	public static final long DEFAULT_ADDRESS = 0x1F1F00; // In the page of the ports, which is always hooked
+	public static final int SIZE = 0x10;
+
+	public static final int LOAD = 0x0;
+	public static final int VALUE = 0x4;
+	public static final int CONTROL = 0x8;
+	public static final int STATUS = 0xC;
+
+	public static final int ENABLE = 1;
+	public static final int IRQ_ENABLE = 1 << 1;
+	public static final int PERIODIC = 1 << 2;
+
+	private VirtualClock clock;
+	private final boolean interrupts;
+	private int load;
+	private int control;
+	private boolean expired;
+	private long startNanos;
+
+	/**
+	 * @param clock The clock of the program
+	 * @param interrupts false if the Cpu can't take the IRQs, in turbo mode
+	 */
+	public IOTimer(VirtualClock clock, boolean interrupts) {
+		this.clock = clock;
+		this.interrupts = interrupts;
+	}
+
+	public synchronized void setClock(VirtualClock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Stop the timer and clear its registers
+	 */
+	public synchronized void reset() {
+		this.load = 0;
+		this.control = 0;
+		this.expired = false;
+		this.startNanos = 0;
+	}
+
+	/**
+	 * @return A copy of the state of the timer, see {@link #restore(IOTimer)}
+	 */
+	public synchronized IOTimer copy() {
+		IOTimer copy = new IOTimer(this.clock, this.interrupts);
+		copy.load = this.load;
+		copy.control = this.control;
+		copy.expired = this.expired;
+		copy.startNanos = this.startNanos;
+		return copy;
+	}
+
+	/**
+	 * @param saved A copy made by {@link #copy()}
+	 */
+	public synchronized void restore(IOTimer saved) {
+		this.load = saved.load;
+		this.control = saved.control;
+		this.expired = saved.expired;
+		this.startNanos = saved.startNanos;
+	}
+
+	/**
+	 * @return true if the address is one of the registers
+	 */
+	public static boolean contains(long address) {
+		return address >= DEFAULT_ADDRESS && address < DEFAULT_ADDRESS + SIZE;
+	}
+
+	/**
+	 * @param offset The offset of the register
+	 * @return The value of the register
+	 */
+	public synchronized int read(int offset) {
+		this.update();
+
+		switch (offset) {
+			case LOAD:
+				return this.load;
+			case VALUE:
+				if ((this.control & ENABLE) == 0) {
+					return this.expired ? 0 : this.load;
+				}
+				long left = this.getPeriod() - (this.clock.nanoTime() - this.startNanos);
+				return (int) ((left + 999) / 1000);
+			case CONTROL:
+				return this.control;
+			case STATUS:
+				return this.expired ? 1 : 0;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * @param offset The offset of the register
+	 * @param value The value written
+	 */
+	public synchronized void write(int offset, int value) {
+		this.update();
+
+		switch (offset) {
+			case LOAD:
+				this.load = value;
+				this.startNanos = this.clock.nanoTime();
+				break;
+			case CONTROL:
+				if ((value & IRQ_ENABLE) != 0 && !this.interrupts) {
+					System.out.println("[WARNING] The timer can't interrupt the program in turbo mode, poll its STATUS instead");
+				}
+				if ((value & ENABLE) != 0 && (this.control & ENABLE) == 0) {
+					this.startNanos = this.clock.nanoTime();
+				}
+				this.control = value & (ENABLE | IRQ_ENABLE | PERIODIC);
+				break;
+			case STATUS:
+				if ((value & 1) != 0) {
+					this.expired = false;
+				}
+				break;
+			default:
+		}
+	}
+
+	/**
+	 * Called before every instruction
+	 * @return true if the timer requests an IRQ
+	 */
+	public synchronized boolean isInterrupting() {
+		if ((this.control & IRQ_ENABLE) == 0) {
+			return false;
+		}
+		this.update();
+		return this.expired;
+	}
+
+	/**
+	 * @return The time of the clock when the count reaches zero, -1 if the timer is stopped
+	 */
+	public synchronized long getNextExpiry() {
+		this.update();
+
+		if ((this.control & ENABLE) == 0) {
+			return -1;
+		}
+		return this.startNanos + this.getPeriod();
+	}
+
+	private long getPeriod() {
+		return Integer.toUnsignedLong(this.load) * 1000;
+	}
+
+	private void update() {
+		if ((this.control & ENABLE) == 0) {
+			return;
+		}
+
+		long period = this.getPeriod();
+		long elapsed = this.clock.nanoTime() - this.startNanos;
+
+		if (elapsed < period) {
+			return;
+		}
+
+		this.expired = true;
+
+		if ((this.control & PERIODIC) != 0 && period > 0) {
+			this.startNanos += elapsed / period * period; // The missed periods are merged into one
+		} else {
+			this.control &= ~ENABLE;
+		}
+	}
+
+	public ReadHook getNewReadHook() {
+		return new ReadHookTimer(this);
+	}
+
+	public WriteHook getNewWriteHook() {
+		return new WriteHookTimer(this);
+	}
+
+	/**
+	 * Puts the current value of the registers in Unicorn before the guest reads them
+	 */
+	private class ReadHookTimer implements ReadHook {
+		private final IOTimer timer;
+
+		public ReadHookTimer(IOTimer timer) {
+			this.timer = timer;
+		}
+
+		public void hook(Unicorn u, long address, int size, Object user_data) {
+			// Every read hook gets the reads of the first one's range
+			if (!IOTimer.contains(address)) {
+				return;
+			}
+
+			byte[] bytes = new byte[Math.min(size, (int) (DEFAULT_ADDRESS + SIZE - address))];
+			for (int i = 0; i < bytes.length; i++) {
+				int offset = (int) (address - DEFAULT_ADDRESS) + i;
+				bytes[i] = (byte) (this.timer.read(offset & ~3) >> (8 * (offset & 3)));
+			}
+			u.mem_write(address, bytes);
+		}
+	}
+
+	private class WriteHookTimer implements WriteHook {
+		private final IOTimer timer;
+
+		public WriteHookTimer(IOTimer timer) {
+			this.timer = timer;
+		}
+
+		public void hook(Unicorn u, long address, int size, long value, Object user_data) {
+			if (IOTimer.contains(address) && size == 4 && (address & 3) == 0) {
+				this.timer.write((int) (address - DEFAULT_ADDRESS), (int) value);
+			}
+		}
+	}
+}
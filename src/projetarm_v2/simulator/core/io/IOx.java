@@ -13,6 +13,7 @@ import java.util.List;
 
 import projetarm_v2.simulator.core.Ram;
 import projetarm_v2.simulator.core.RamRegister;
+import projetarm_v2.simulator.core.VirtualClock;
 
 public class IOx {
 
@@ -28,11 +29,14 @@ public class IOx {
 	private IOComponent[] components = new IOComponent[REGISTER_SIZE];
 
 	private int portNb;
+
+	private final VirtualClock clock;
 	
-	public IOx(Ram ram, int portNb, long portAddress, long dirAddress) {
+	public IOx(Ram ram, VirtualClock clock, int portNb, long portAddress, long dirAddress) {
 		this.portX = new RamRegister(ram, portAddress);
 		this.dirX = new RamRegister(ram, dirAddress);
 		this.portNb = portNb;
+		this.clock = clock;
 	}
 
 	public boolean removeComponent(IOComponent component) {
@@ -83,7 +87,7 @@ public class IOx {
 		}
 		noComponent++;
 		
-		IOButton button = new IOButton(portX, bit, portNb);;
+		IOButton button = new IOButton(portX, bit, portNb, clock);
 		this.components[bit] = button;
 		
 		return button;
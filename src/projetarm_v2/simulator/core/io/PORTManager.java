@@ -12,6 +12,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import projetarm_v2.simulator.core.Ram;
+import projetarm_v2.simulator.core.VirtualClock;
 
 public class PORTManager {
 	public static final long DEFAULT_PORT_ADDRESS = 0x1F1000;
@@ -19,11 +20,17 @@ public class PORTManager {
 	
 	private final List<IOx> ports = new ArrayList<>();
 	private final Ram ram;
+	private final VirtualClock clock;
 	private long firstPortAddress;
 	private long firstDirAddress;
 	
-	public PORTManager(Ram ram) {
+	/**
+	 * @param ram The Ram holding the ports
+	 * @param clock The clock timing the components, such as the release of the buttons
+	 */
+	public PORTManager(Ram ram, VirtualClock clock) {
 		this.ram = ram;
+		this.clock = clock;
 		this.clear();
 	}
 
@@ -135,6 +142,6 @@ public class PORTManager {
 	}
 
 	private void newPort(int portNb) {
-		this.ports.add(new IOx(ram, portNb, firstPortAddress++, firstDirAddress++));
+		this.ports.add(new IOx(ram, clock, portNb, firstPortAddress++, firstDirAddress++));
 	}
 }
@@ -25,6 +25,10 @@ public class CpuBreakpoint extends CpuRoutine {
 	
 	@Override
 	protected void primitive() {
+		if (this.getCpu().isReplaying()) {
+			return; // The replay stops at its instruction count
+		}
+
 		this.getCpu().interruptMe();
 	}
 
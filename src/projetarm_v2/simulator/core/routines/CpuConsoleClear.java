@@ -31,7 +31,7 @@ public class CpuConsoleClear extends CpuRoutine {
 	@Override
 	protected void primitive()
 	{
-		if (consoleView != null) {
+		if (consoleView != null && !this.getCpu().isReplaying()) {
 			this.consoleView.clear();
 		}
 	}
@@ -9,6 +9,7 @@
 package projetarm_v2.simulator.core.routines;
 
 import projetarm_v2.simulator.core.Cpu;
+import projetarm_v2.simulator.core.InputKind;
 
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -32,6 +33,10 @@ public class CpuConsoleGetChar extends CpuRoutine {
 	@Override
 	protected void primitive()
 	{
+		this.getRegister(0).setValue(this.getCpu().readInput(InputKind.CONSOLE_CHAR, this::waitForChar));
+	}
+	
+	private int waitForChar() {
 		System.out.println("[INPUT] Waiting for input");
 		
 		this.waitingForInput.set(true);
@@ -44,6 +49,6 @@ public class CpuConsoleGetChar extends CpuRoutine {
 		}
 		this.waitingForInput.set(false);
 		
-		this.getRegister(0).setValue(this.consoleBuffer.poll());
+		return this.consoleBuffer.poll();
 	}
 }
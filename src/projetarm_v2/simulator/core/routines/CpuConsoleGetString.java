@@ -9,7 +9,9 @@
 package projetarm_v2.simulator.core.routines;
 
 import projetarm_v2.simulator.core.Cpu;
+import projetarm_v2.simulator.core.InputKind;
 
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -33,6 +35,12 @@ public class CpuConsoleGetString extends CpuRoutine {
 	@Override
 	protected void primitive()
 	{
+		long address = (long) this.getRegister(0).getValue();
+		
+		this.getRam().write(address, this.getCpu().readInputBytes(InputKind.CONSOLE_STRING, this::waitForString));
+	}
+	
+	private byte[] waitForString() {
 		System.out.println("[INPUT] Waiting for input");
 		this.waitingForInput.set(true);
 		while (this.consoleBuffer.peek() == null) {
@@ -44,14 +52,18 @@ public class CpuConsoleGetString extends CpuRoutine {
 		}
 		this.waitingForInput.set(false);
 		
-		long address = (long) this.getRegister(0).getValue();
+		byte[] input = new byte[this.consoleBuffer.size()];
+		int length = 0;
 		
 		for(Character ch : this.consoleBuffer)
 		{
-			this.getRam().setByte(address,(byte)(char)ch);
-			address++;
+			if (length == input.length) {
+				break;
+			}
+			input[length++] = (byte)(char)ch;
 		}
 		this.consoleBuffer.clear();
+		return Arrays.copyOf(input, length);
 	}
 	
 	public boolean isWaitingForInput() {
@@ -25,6 +25,10 @@ public class CpuConsolePutChar extends CpuRoutine {
 	
 	@Override
 	protected void primitive() {
+		if (this.getCpu().isReplaying()) {
+			return; // Already done the first time
+		}
+
 		int r0 = this.getRegister(0).getValue();
 
 		System.out.format("[OUTPUT] %s%n",Character.toString((char) r0));
@@ -22,6 +22,10 @@ public class CpuConsolePutString extends CpuRoutine {
 
 	@Override
 	protected void primitive() {
+		if (this.getCpu().isReplaying()) {
+			return; // Already done the first time
+		}
+
 		long address = (long) this.getRegister(0).getValue();
 		
 		try
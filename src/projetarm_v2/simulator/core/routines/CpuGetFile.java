@@ -9,6 +9,7 @@
 package projetarm_v2.simulator.core.routines;
 
 import projetarm_v2.simulator.core.Cpu;
+import projetarm_v2.simulator.core.InputKind;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -32,18 +33,20 @@ public class CpuGetFile extends CpuRoutine
 		long address = (long) this.getRegister(0).getValue();
 		long dest = (long) this.getRegister(1).getValue();
 		
-		try {
-			String path = this.longToString(address);
-			System.out.println("[INFO] Reading " + path + " to 0x" + Long.toHexString(dest));
-			byte[] array = Files.readAllBytes(Path.of(path));
-			for(byte myByte: array)
-			{
-				this.getRam().setByte(dest,myByte);
-				dest++;
+		byte[] content = this.getCpu().readInputBytes(InputKind.FILE, () -> {
+			try {
+				String path = this.longToString(address);
+				System.out.println("[INFO] Reading " + path + " to 0x" + Long.toHexString(dest));
+				return Files.readAllBytes(Path.of(path));
+				
+			} catch(Exception e) {
+				System.out.println("[ERROR] Reading " + e.getMessage());
+				return null;
 			}
-			
-		} catch(Exception e) {
-			System.out.println("[ERROR] Reading " + e.getMessage());
+		});
+		
+		if (content != null) {
+			this.getRam().write(dest, content);
 		}
 	}
 }
@@ -22,6 +22,10 @@ public class CpuPutFile extends CpuRoutine
 	
 	@Override
 	protected void primitive() {
+		if (this.getCpu().isReplaying()) {
+			return; // Already done the first time
+		}
+
 		long address = (long) this.getRegister(0).getValue();
 		long dest = (long) this.getRegister(1).getValue();
 		
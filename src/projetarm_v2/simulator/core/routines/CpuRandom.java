@@ -11,6 +11,7 @@ package projetarm_v2.simulator.core.routines;
 import java.util.Random;
 
 import projetarm_v2.simulator.core.Cpu;
+import projetarm_v2.simulator.core.InputKind;
 import projetarm_v2.simulator.ui.javafx.ConsoleView;
 
 public class CpuRandom extends CpuRoutine {
@@ -30,6 +31,6 @@ public class CpuRandom extends CpuRoutine {
 	@Override
 	protected void primitive()
 	{
-		this.getCpu().getRegister(0).setValue(this.random.nextInt());
+		this.getCpu().getRegister(0).setValue(this.getCpu().readInput(InputKind.RANDOM, this.random::nextInt));
 	}
 }
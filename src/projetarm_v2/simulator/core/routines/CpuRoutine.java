@@ -15,8 +15,6 @@ import unicorn.CodeHook;
 import unicorn.Unicorn;
 
 import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
-import java.util.List;
 
 public abstract class CpuRoutine {
 
@@ -52,24 +50,7 @@ public abstract class CpuRoutine {
 	
 	protected String longToString(long address) throws UnsupportedEncodingException
 	{
-		int i= 0;
-		List<Byte> list = new ArrayList<>();
-		byte c = this.getRam().getByte(address++);
-		
-		while (c != 0) {
-			list.add(c);
-			c = this.getRam().getByte(address++);
-		}
-		
-		byte[] array = new byte[list.size()];
-		
-		for (Byte current : list) {
-			array[i] = current;
-			i++;
-		}
-	
-		return new String(array, "UTF-8");
-	
+		return new String(this.getRam().readString(address), "UTF-8");
 	}
 	
 	private class RoutineHook implements CodeHook {
@@ -84,10 +65,22 @@ public abstract class CpuRoutine {
 				return;
 			}
 			
-			System.out.println("[INFO] System call " + this.cpuRoutine.getClass().getSimpleName()
-					+ " @ 0x" + Long.toHexString(this.cpuRoutine.getRoutineAddress()));
+			// A hook called before this one may have stopped the Cpu before the routine
+			if (!this.cpuRoutine.getCpu().isRunning()) {
+				return;
+			}
+			
+			if (!this.cpuRoutine.getCpu().isReplaying()) {
+				System.out.println("[INFO] System call " + this.cpuRoutine.getClass().getSimpleName()
+						+ " @ 0x" + Long.toHexString(this.cpuRoutine.getRoutineAddress()));
+			}
 			
-			this.cpuRoutine.primitive();
+			this.cpuRoutine.getCpu().enterHostCall();
+			try {
+				this.cpuRoutine.primitive();
+			} finally {
+				this.cpuRoutine.getCpu().leaveHostCall();
+			}
 			
 			this.cpuRoutine.getCpu().setCurrentAddress((long) this.cpuRoutine.getCpu().getRegister(14).getValue()-4);
 		}
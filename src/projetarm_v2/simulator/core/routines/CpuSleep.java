@@ -25,10 +25,12 @@ public class CpuSleep extends CpuRoutine {
 	
 	@Override
 	protected void primitive() {
-		try {
-			Thread.sleep(this.getRegister(0).getValue());
-		} catch (InterruptedException e) {
-			Thread.currentThread().interrupt();
+		long millis = Math.max(0, this.getRegister(0).getValue());
+
+		if (this.getCpu().isReplayingInputs()) {
+			this.getCpu().getClock().skip(millis); // The time has already passed the first time
+		} else {
+			this.getCpu().getClock().sleep(millis);
 		}
 	}
 
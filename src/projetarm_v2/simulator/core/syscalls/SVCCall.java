@@ -9,8 +9,6 @@
 package projetarm_v2.simulator.core.syscalls;
 
 import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
-import java.util.List;
 
 import projetarm_v2.simulator.core.Cpu;
 import projetarm_v2.simulator.core.Ram;
@@ -34,25 +32,10 @@ public abstract class SVCCall {
 
 	protected String longToString(long address, int length) throws UnsupportedEncodingException
 	{
-	
-		List<Byte> list = new ArrayList<>();
-		byte c = this.getRam().getByte(address++);
-		
-		for (int i = 0; i < length; i++) {
-			list.add(c);
-			c = this.getRam().getByte(address++);
-		}
-		
-		byte[] array = new byte[list.size()];
-		
-		int i= 0;
-		for (Byte current : list) {
-			array[i] = current;
-			i++;
-		}
+		byte[] array = new byte[length];
+		this.getRam().read(address, array);
 		
 		return new String(array, "UTF-8");
-	
 	}
 	
 	protected abstract int getSvcNumber();
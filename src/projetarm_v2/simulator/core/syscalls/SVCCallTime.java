@@ -11,6 +11,7 @@ package projetarm_v2.simulator.core.syscalls;
 import java.io.IOException;
 
 import projetarm_v2.simulator.core.Cpu;
+import projetarm_v2.simulator.core.InputKind;
 
 public class SVCCallTime extends SVCCall {
 
@@ -25,7 +26,7 @@ public class SVCCallTime extends SVCCall {
 
 	@Override
 	protected void primitive() {
-		this.getCpu().getRegister(0).setValue((int)java.time.Instant.now().getEpochSecond());
+		this.getCpu().getRegister(0).setValue(this.getCpu().readInput(InputKind.TIME, () -> (int)this.getCpu().getClock().epochSecond()));
 	}
 
 }
@@ -11,14 +11,12 @@ package projetarm_v2.simulator.core.syscalls;
 import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
-
-import org.reflections.Reflections;
 
 import projetarm_v2.simulator.core.Cpu;
 import projetarm_v2.simulator.core.syscalls.io.FileDescriptors;
 import projetarm_v2.simulator.core.syscalls.io.OpenedFile;
 import projetarm_v2.simulator.core.syscalls.io.SVCIOCall;
+import projetarm_v2.simulator.utils.ServiceIndex;
 import unicorn.InterruptHook;
 import unicorn.Unicorn;
 
@@ -43,11 +41,7 @@ public class SVCHandler {
 	}
 	
 	public void findSyscalls() {
-		Reflections reflections = new Reflections("projetarm_v2.simulator.core.syscalls");
-
-		Set<Class<? extends SVCCall>> calls = reflections.getSubTypesOf(SVCCall.class);
-		
-		for (Class<? extends SVCCall> classCall : calls) {
+		for (Class<? extends SVCCall> classCall : ServiceIndex.getImplementations(SVCCall.class)) {
 			try {
 				SVCCall call = (SVCCall)(classCall.getDeclaredConstructor(Cpu.class).newInstance(this.cpu));
 				this.interruptVector.put(call.getSvcNumber(),call);
@@ -56,11 +50,7 @@ public class SVCHandler {
 	}
 	
 	public void findIOSyscalls() {
-		Reflections reflections = new Reflections("projetarm_v2.simulator.core.syscalls.io");
-
-		Set<Class<? extends SVCIOCall>> calls = reflections.getSubTypesOf(SVCIOCall.class);
-		
-		for (Class<? extends SVCIOCall> classCall : calls) {
+		for (Class<? extends SVCIOCall> classCall : ServiceIndex.getImplementations(SVCIOCall.class)) {
 			try {
 				SVCCall call = (SVCIOCall)(classCall.getDeclaredConstructor(Cpu.class, FileDescriptors.class).newInstance(this.cpu, this.fileDescriptors));
 				this.interruptVector.put(call.getSvcNumber(),call);
@@ -68,6 +58,20 @@ public class SVCHandler {
 		}
 	}
 	
+	/**
+	 * Close every file opened by the program
+	 */
+	public void reset() {
+		this.fileDescriptors.clear();
+	}
+	
+	/**
+	 * @return The files opened by the program
+	 */
+	public FileDescriptors getFileDescriptors() {
+		return this.fileDescriptors;
+	}
+	
 	public InterruptHook getSVCCallHandler() {
 		return new SVCCallHook(this.cpu);
 	}
@@ -81,7 +85,8 @@ public class SVCHandler {
 		
 		 public void hook(Unicorn u, int intno, Object user) {
 			if (intno == 2) {
-				int instruction = this.cpu.getRam().getValue(this.cpu.getCurrentAddress());
+				this.cpu.enterHostCall();
+				int instruction = this.cpu.getRam().getValue(this.cpu.getExecutingAddress());
 				int svcCallNo = (instruction << 8) >> 8;
 				
 				SVCCall call = interruptVector.get(svcCallNo);
@@ -91,7 +96,11 @@ public class SVCHandler {
 					return;
 				}
 				
-				call.run();
+				try {
+					call.run();
+				} finally {
+					this.cpu.leaveHostCall();
+				}
 			} else {
 				System.out.println("[ERROR] Unknown CPU exception no" + intno);
 				System.out.println("[ERROR] EMULATION ABORTED!");
@@ -27,4 +27,32 @@ public class FileDescriptors {
 	public boolean closeFile(int fd) {
 		return this.map.remove(fd) != null;
 	}
+	
+	/**
+	 * Forget every opened file and start numbering them again
+	 */
+	public void clear() {
+		this.map.clear();
+		this.newId.set(3);
+	}
+	
+	/**
+	 * @return The opened files and the next number, the files themselves are not copied
+	 */
+	public FileDescriptors copy() {
+		FileDescriptors copy = new FileDescriptors();
+		copy.map.putAll(this.map);
+		copy.newId.set(this.newId.get());
+		return copy;
+	}
+	
+	/**
+	 * Go back to the opened files of a copy
+	 * @param saved The copy, see {@link #copy()}
+	 */
+	public void restore(FileDescriptors saved) {
+		this.map.clear();
+		this.map.putAll(saved.map);
+		this.newId.set(saved.newId.get());
+	}
 }
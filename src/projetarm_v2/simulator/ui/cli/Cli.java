@@ -18,6 +18,7 @@ import com.googlecode.lanterna.terminal.*;
 
 import projetarm_v2.simulator.boilerplate.ArmSimulator;
 import projetarm_v2.simulator.boilerplate.InvalidInstructionException;
+import projetarm_v2.simulator.core.RegisterSnapshot;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -96,7 +97,7 @@ public class Cli {
 				try {
 					this.codeEditor.setText(this.codeEditor.getText().replaceAll("-> ", ""));
 					try {
-						this.simulator.setProgram(this.codeEditor.getText().replaceAll("\n", ";"));
+						this.simulator.setProgram(this.codeEditor.getText());
 					} catch (InvalidInstructionException e) {
 						System.out.println(e.getMessage());
 						this.showCurrentLine(e.getLine());
@@ -116,6 +117,9 @@ public class Cli {
 					new Thread(() -> {
 						this.running.set(true);
 						this.simulator.run();
+						if (this.simulator.hasStoppedOnBreakpoint()) {
+							this.showCurrentLine();
+						}
 						this.updateGUI();
 						this.running.set(false);
 					}).start();
@@ -132,6 +136,14 @@ public class Cli {
 				}
 			}));
 
+			menuPanel.addComponent(new Button("Break", () -> {
+				if (this.codeEditor.isReadOnly()) {
+					int line = this.codeEditor.getCaretPosition().getRow() + 1;
+					boolean set = this.simulator.toggleBreakpointAtLine(line);
+					System.out.println("[INFO] Breakpoint " + (set ? "set" : "removed") + " @ Line " + line);
+				}
+			}));
+
 			menuPanel.addComponent(new Button("Stop", () -> {
 				this.simulator.interruptExecutionFlow();
 				writeMode();
@@ -262,10 +274,12 @@ public class Cli {
 	}
 
 	private void updateRegisters() {
+		RegisterSnapshot snapshot = this.simulator.snapshotRegisters();
+		
 		for (int i = 0; i < registers.length - 1; i++) {
-			registers[i].setText("0x" + Integer.toHexString(this.simulator.getRegisterValue(i)));
+			registers[i].setText("0x" + Integer.toHexString(snapshot.getRegister(i)));
 		}
-		registers[16].setText(this.simulator.getCpu().getCPSR().toString());
+		registers[16].setText(snapshot.flagsToString());
 	}
 
 	private void updateGUI() {
@@ -45,7 +45,12 @@ public class ArmMenuBar {
 
     private MenuItem runMenuItem ;
     private MenuItem runStepMenuItem ;
+    private MenuItem stepBackMenuItem ;
+    private MenuItem runBackMenuItem ;
     private MenuItem stopMenuItem ;
+    private CheckMenuItem recordHistoryMenuItem ;
+    private MenuItem saveJournalMenuItem ;
+    private MenuItem replayJournalMenuItem ;
 
     private MenuItem preferences;
 
@@ -88,9 +93,14 @@ public class ArmMenuBar {
         this.switchMode = new MenuItem("Switch Mode");
         this.runMenuItem = new MenuItem("Run");
         this.runStepMenuItem = new MenuItem("Run Step by Step");
+        this.stepBackMenuItem = new MenuItem("Step Back");
+        this.runBackMenuItem = new MenuItem("Run Back to Breakpoint");
         this.stopMenuItem = new MenuItem("Stop");
         this.reloadMenuItem = new MenuItem("Reload");
-        runMenu.getItems().addAll(this.switchMode, runMenuItem, runStepMenuItem, stopMenuItem, reloadMenuItem);
+        this.recordHistoryMenuItem = new CheckMenuItem("Record History");
+        this.saveJournalMenuItem = new MenuItem("Save Input Journal...");
+        this.replayJournalMenuItem = new MenuItem("Replay Input Journal...");
+        runMenu.getItems().addAll(this.switchMode, runMenuItem, runStepMenuItem, stepBackMenuItem, runBackMenuItem, stopMenuItem, reloadMenuItem, new SeparatorMenuItem(), recordHistoryMenuItem, saveJournalMenuItem, replayJournalMenuItem);
 
         final MenuItem aboutMenu = new MenuItem("About");
         helpMenu.getItems().add(aboutMenu);
@@ -112,8 +122,12 @@ public class ArmMenuBar {
 
         disableInEdition.add(runMenuItem);
         disableInEdition.add(runStepMenuItem);
+        disableInEdition.add(stepBackMenuItem);
+        disableInEdition.add(runBackMenuItem);
         disableInEdition.add(stopMenuItem);
         disableInEdition.add(reloadMenuItem);
+        disableInEdition.add(saveJournalMenuItem);
+        disableInEdition.add(replayJournalMenuItem);
 
         exitMenu.setOnAction(actionEvent -> Platform.exit());
         
@@ -192,10 +206,30 @@ public class ArmMenuBar {
         return runStepMenuItem;
     }
 
+    public MenuItem getStepBackMenuItem() {
+        return stepBackMenuItem;
+    }
+
+    public MenuItem getRunBackMenuItem() {
+        return runBackMenuItem;
+    }
+
     public MenuItem getStopMenuItem() {
         return stopMenuItem;
     }
 
+    public CheckMenuItem getRecordHistoryMenuItem() {
+        return recordHistoryMenuItem;
+    }
+
+    public MenuItem getSaveJournalMenuItem() {
+        return saveJournalMenuItem;
+    }
+
+    public MenuItem getReplayJournalMenuItem() {
+        return replayJournalMenuItem;
+    }
+
     public MenuItem getPreferences() {
         return preferences;
     }
@@ -25,6 +25,8 @@ public class ArmToolBar {
     private Button switchButton;
     private Button runButton;
     private Button stepByStepButton;
+    private Button stepBackButton;
+    private Button runBackButton;
     private Button reloadButton;
     private Button stopButton;
 
@@ -44,6 +46,17 @@ public class ArmToolBar {
         this.stepByStepButton = new Button("", new ImageView(new Image(getClass().getResource("/resources/runByStep.png").toExternalForm())));
         this.stepByStepButton.setTooltip(new Tooltip("Execute the highlighted instruction [F11]"));
         
+        // The backward buttons show the forward icons mirrored
+        ImageView stepBackIcon = new ImageView(new Image(getClass().getResource("/resources/runByStep.png").toExternalForm()));
+        stepBackIcon.setScaleX(-1);
+        this.stepBackButton = new Button("", stepBackIcon);
+        this.stepBackButton.setTooltip(new Tooltip("Go back before the last executed instruction [SHIFT-F11]"));
+
+        ImageView runBackIcon = new ImageView(new Image(getClass().getResource("/resources/run.png").toExternalForm()));
+        runBackIcon.setScaleX(-1);
+        this.runBackButton = new Button("", runBackIcon);
+        this.runBackButton.setTooltip(new Tooltip("Run backwards to the previous breakpoint [SHIFT-F5]"));
+        
         this.reloadButton = new Button("", new ImageView(new Image(getClass().getResource("/resources/reload.png").toExternalForm())));
         this.reloadButton.setTooltip(new Tooltip("Reset CPU [CTRL-R]"));
    
@@ -51,17 +64,21 @@ public class ArmToolBar {
         this.stopButton.setTooltip(new Tooltip("Stop simulation"));
 
         
-        this.toolBar = new ToolBar(switchButton, new Separator(), runButton, stepByStepButton, reloadButton, stopButton);
+        this.toolBar = new ToolBar(switchButton, new Separator(), runBackButton, stepBackButton, runButton, stepByStepButton, reloadButton, stopButton);
         
         this.switchButton.getStyleClass().add("buttonToolBar");
         this.runButton.getStyleClass().add("buttonToolBar");
         this.stepByStepButton.getStyleClass().add("buttonToolBar");
+        this.stepBackButton.getStyleClass().add("buttonToolBar");
+        this.runBackButton.getStyleClass().add("buttonToolBar");
         this.reloadButton.getStyleClass().add("buttonToolBar");
         this.stopButton.getStyleClass().add("buttonToolBar");
         
         this.disableInEdition = new HashSet<>();
         disableInEdition.add(runButton);
         disableInEdition.add(stepByStepButton);
+        disableInEdition.add(stepBackButton);
+        disableInEdition.add(runBackButton);
         disableInEdition.add(reloadButton);
         disableInEdition.add(stopButton);
     }
@@ -88,6 +105,14 @@ public class ArmToolBar {
         return stepByStepButton;
     }
 
+    public Button getStepBackButton() {
+        return stepBackButton;
+    }
+
+    public Button getRunBackButton() {
+        return runBackButton;
+    }
+
     public Button getStopButton() {
         return stopButton;
     }
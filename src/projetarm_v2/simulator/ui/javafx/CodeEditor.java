@@ -128,14 +128,16 @@ public class CodeEditor {
             this.instructionsAsText = new ArrayList<>();
             this.textFlow.getChildren().clear();
             for (int lineNumber = 1; lineNumber <= instructionsAsStrings.length; lineNumber++) {
-            	String address = "\t";
-            	int longAddress = armSimulator.getAddressFromLine(lineNumber);
-            	if (longAddress != 0) {
-            		address = String.format("%08x:%08x", longAddress, armSimulator.getRamWord(longAddress));
-            	}
-                String line = lineNumber + "\t" + address + "\t\t" + instructionsAsStrings[lineNumber-1] + '\n';
-                this.instructionsAsText.add(new Text(line));
-                this.textFlow.getChildren().add(this.instructionsAsText.get(lineNumber-1));
+                Text text = new Text(lineText(lineNumber, instructionsAsStrings[lineNumber-1]));
+                final int clickedLine = lineNumber;
+                final String instruction = instructionsAsStrings[lineNumber-1];
+                // Clicking on a line toggles its breakpoint
+                text.setOnMouseClicked(event -> {
+                    armSimulator.toggleBreakpointAtLine(clickedLine);
+                    text.setText(lineText(clickedLine, instruction));
+                });
+                this.instructionsAsText.add(text);
+                this.textFlow.getChildren().add(text);
             }
             highlightLine(1);
             this.dockNode.setTitle("Simulator");
@@ -144,6 +146,22 @@ public class CodeEditor {
         }
     }
 
+    /**
+     * build the text of a line in the simulation mode
+     * @param lineNumber the line number
+     * @param instruction the assembly of the line
+     * @return the line with its breakpoint marker, address and content
+     */
+    private String lineText(int lineNumber, String instruction) {
+        String address = "\t";
+        int longAddress = armSimulator.getAddressFromLine(lineNumber);
+        if (longAddress != 0) {
+            address = String.format("%08x:%08x", longAddress, armSimulator.getRamWord(longAddress));
+        }
+        String marker = armSimulator.hasBreakpointAtLine(lineNumber) ? "* " : "";
+        return marker + lineNumber + "\t" + address + "\t\t" + instruction + '\n';
+    }
+
     /**
      * get the dock node of the code editor
      * @return
@@ -346,12 +346,48 @@ public class Gui extends Application {
 				}).start();
 			}
 		});
+		this.armMenuBar.getStepBackMenuItem().setOnAction(actionEvent -> {
+			if (executionMode && !(running.get())) {
+				new Thread(() -> {
+					this.running.set(true);
+					
+					this.setEditable(false);
+					if (!this.simulator.stepBack()) {
+						System.out.println("[INFO] No instruction to go back to");
+					}
+					this.setEditable(true);
+					
+					this.running.set(false);
+
+					updateUI();
+				}).start();
+			}
+		});
+		this.armMenuBar.getRunBackMenuItem().setOnAction(actionEvent -> {
+			if (executionMode && !(running.get())) {
+				new Thread(() -> {
+					this.running.set(true);
+					
+					this.setEditable(false);
+					if (!this.simulator.runBackToBreakpoint()) {
+						System.out.println("[INFO] No breakpoint before, back to the start of the program");
+					}
+					this.setEditable(true);
+					
+					this.running.set(false);
+
+					updateUI();
+				}).start();
+			}
+		});
 		this.armMenuBar.getStopMenuItem().setOnAction(actionEvent -> {
 			simulator.interruptExecutionFlow();
 			updateUI();
 			this.setEditable(false);
 			this.running.set(false);
 		});
+		this.armMenuBar.getRecordHistoryMenuItem().setOnAction(actionEvent ->
+			this.simulator.setRecordingHistory(this.armMenuBar.getRecordHistoryMenuItem().isSelected()));
 		this.armMenuBar.getReloadMenuItem().setOnAction(actionEvent -> {
 			if (!running.get()) {
 				this.simulator.resetState();
@@ -359,12 +395,53 @@ public class Gui extends Application {
 				updateUI();
 			}
 		});
+		this.armMenuBar.getSaveJournalMenuItem().setOnAction(actionEvent -> {
+			if (executionMode && !(running.get())) {
+				FileChooser fileChooser = new FileChooser();
+				fileChooser.setTitle("Save input journal");
+				fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Input Journals", "*.ARMJ"));
+				File chosenFile = fileChooser.showSaveDialog(stage);
+				if (chosenFile != null) {
+					if (!chosenFile.getAbsolutePath().endsWith(".ARMJ")) {
+						chosenFile = new File(chosenFile.getAbsolutePath() + ".ARMJ");
+					}
+					try {
+						this.simulator.saveInputJournal(chosenFile.toPath());
+					} catch (IOException e) {
+						System.out.println("[ERROR] Can't save the journal: " + e.getMessage());
+					}
+				}
+			}
+		});
+		this.armMenuBar.getReplayJournalMenuItem().setOnAction(actionEvent -> {
+			if (executionMode && !(running.get())) {
+				FileChooser fileChooser = new FileChooser();
+				fileChooser.setTitle("Replay input journal");
+				fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Input Journals", "*.ARMJ"));
+				File chosenFile = fileChooser.showOpenDialog(stage);
+				if (chosenFile != null) {
+					// The journal starts with the program as it was loaded
+					this.simulator.resetState();
+					this.simulator.setProgram(codeEditor.getProgramAsString());
+					try {
+						if (this.simulator.replayInputJournal(chosenFile.toPath())) {
+							this.armMenuBar.getRunMenuItem().fire();
+						}
+					} catch (IOException e) {
+						System.out.println("[ERROR] Can't replay the journal: " + e.getMessage());
+					}
+					updateUI();
+				}
+			}
+		});
 
 
 		//TOOL BAR
 		this.armToolBar.getSwitchButton().setOnAction(actionEvent -> armMenuBar.getSwitchMode().fire());
 		this.armToolBar.getRunButton().setOnAction(actionEvent -> armMenuBar.getRunMenuItem().fire());
 		this.armToolBar.getStepByStepButton().setOnAction(actionEvent -> armMenuBar.getRunStepMenuItem().fire());
+		this.armToolBar.getStepBackButton().setOnAction(actionEvent -> armMenuBar.getStepBackMenuItem().fire());
+		this.armToolBar.getRunBackButton().setOnAction(actionEvent -> armMenuBar.getRunBackMenuItem().fire());
 		this.armToolBar.getReloadButton().setOnAction(actionEvent -> armMenuBar.getReloadMenuItem().fire());
 		this.armToolBar.getStopButton().setOnAction(actionEvent -> armMenuBar.getStopMenuItem().fire());
 
@@ -408,6 +485,12 @@ public class Gui extends Application {
 			if (new KeyCodeCombination(KeyCode.F11).match(ke)) {
 				this.armMenuBar.getRunStepMenuItem().fire();
 			}
+			if (new KeyCodeCombination(KeyCode.F11, KeyCombination.SHIFT_DOWN).match(ke)) {
+				this.armMenuBar.getStepBackMenuItem().fire();
+			}
+			if (new KeyCodeCombination(KeyCode.F5, KeyCombination.SHIFT_DOWN).match(ke)) {
+				this.armMenuBar.getRunBackMenuItem().fire();
+			}
 		});
 	}
 
@@ -428,6 +511,7 @@ public class Gui extends Application {
 
 		File chosenFile = fileChooser.showOpenDialog(this.stage);
 		if (chosenFile != null) {
+			simulator.setSourceDirectory(chosenFile.getAbsoluteFile().getParentFile().toPath());
 			try {
 				if (chosenFile.getAbsolutePath().endsWith(".ARMS")){
 					try {
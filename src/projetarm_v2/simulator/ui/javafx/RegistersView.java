@@ -23,6 +23,7 @@ import javafx.scene.layout.Pane;
 import org.dockfx.DockNode;
 import projetarm_v2.gpl.TextFieldTableCellFixed;
 import projetarm_v2.simulator.boilerplate.ArmSimulator;
+import projetarm_v2.simulator.core.RegisterSnapshot;
 
 import java.text.DecimalFormat;
 import java.util.ArrayList;
@@ -253,6 +254,8 @@ public class RegistersView {
         this.registersSigDec = FXCollections.observableArrayList();
         this.registersDec = FXCollections.observableArrayList();
         
+        RegisterSnapshot snapshot = simulator.snapshotRegisters();
+        
         for (int i = 0; i < 16; i++) {
         	String nameRegister = "R" + i;
         	
@@ -267,19 +270,19 @@ public class RegistersView {
         			nameRegister += " (PC)";
         	}
         	
-        	String registerHex = String.format("0x%08x", simulator.getRegisterValue(i));	
+        	String registerHex = String.format("0x%08x", snapshot.getRegister(i));	
   		   	this.registersHex.add(new RegisterObjectView(i, nameRegister, registerHex));
   		   	
-		   	String registerDec = String.format("%s", Integer.toUnsignedString(simulator.getRegisterValue(i)));
+		   	String registerDec = String.format("%s", Integer.toUnsignedString(snapshot.getRegister(i)));
   		   	this.registersDec.add(new RegisterObjectView(i, nameRegister, registerDec));
   		   	
-  		   	String registerSigDec = fmt.format(simulator.getRegisterValue(i));
+  		   	String registerSigDec = fmt.format(snapshot.getRegister(i));
 		  	this.registersSigDec.add(new RegisterObjectView(i, nameRegister, registerSigDec));
   		}
         
-        this.flagHex = new RegisterObjectView(17, "[FLAGS]",simulator.getCpu().getCPSR().toString());
-        this.flagSigDec = new RegisterObjectView(17, "[FLAGS]",simulator.getCpu().getCPSR().toString());
-        this.flagDec = new RegisterObjectView(17, "[FLAGS]",simulator.getCpu().getCPSR().toString());
+        this.flagHex = new RegisterObjectView(17, "[FLAGS]",snapshot.flagsToString());
+        this.flagSigDec = new RegisterObjectView(17, "[FLAGS]",snapshot.flagsToString());
+        this.flagDec = new RegisterObjectView(17, "[FLAGS]",snapshot.flagsToString());
 
         this.registersHex.add(flagHex);
         this.registersSigDec.add(flagSigDec);
@@ -346,15 +349,18 @@ public class RegistersView {
 	 */
 	public void updateRegisters(){
 
+    	RegisterSnapshot snapshot = simulator.snapshotRegisters();
+    	
     	for (int i = 0; i < 16; i++) {
-    		this.registersHex.get(i).setValueRegister(String.format("0x%08x", simulator.getRegisterValue(i)));
-    		this.registersDec.get(i).setValueRegister(String.format("%s", Integer.toUnsignedString(simulator.getRegisterValue(i))));
-    		this.registersSigDec.get(i).setValueRegister(fmt.format(simulator.getRegisterValue(i)));
+    		this.registersHex.get(i).setValueRegister(String.format("0x%08x", snapshot.getRegister(i)));
+    		this.registersDec.get(i).setValueRegister(String.format("%s", Integer.toUnsignedString(snapshot.getRegister(i))));
+    		this.registersSigDec.get(i).setValueRegister(fmt.format(snapshot.getRegister(i)));
     	}
          
-    	this.flagHex.setValueRegister(simulator.getCpu().getCPSR().toString());
-        this.flagSigDec.setValueRegister(simulator.getCpu().getCPSR().toString());
-        this.flagDec.setValueRegister(simulator.getCpu().getCPSR().toString());
+    	String flags = snapshot.flagsToString();
+    	this.flagHex.setValueRegister(flags);
+        this.flagSigDec.setValueRegister(flags);
+        this.flagDec.setValueRegister(flags);
 
         refreshColumnData();
     }
@@ -118,6 +118,8 @@ public class RamView {
      * refresh the ram values displayed
      */
     public void refresh() {
+    	this.simulator.getRam().invalidate(); // Only matters when Unicorn holds the memory
+    	
     	for (int i = this.tableView.getColumns().size()+1; i> UneSuperImplemFournieParValentinLeBg.getColumns()+2; i--) {
 	        this.tableView.getColumns().remove(i-2);
         }
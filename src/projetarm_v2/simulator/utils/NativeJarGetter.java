@@ -11,20 +11,46 @@ package projetarm_v2.simulator.utils;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Extracts the native libraries and executables bundled in the jar.
+ *
+ * They are extracted once in the cache directory of the user, in a directory
+ * named after the hash of their content, and reused by the following starts
+ * as long as they still hold the bundled content. Without a cache directory
+ * the temporary directory is used the same way.
+ */
 public class NativeJarGetter {
 
 	private static final String NATIVE_DIR = "/natives/";
+	private static final String CACHE_VERSION = "v1";
 	private static NativeJarGetter nativeGetter;
-	private File temporaryDir;
+	private final Path cacheDir;
+	private final Map<String, File> extracted = new HashMap<>();
 
 	private NativeJarGetter() throws IOException {
-		temporaryDir = this.createTempDirectory("projectarm");
+		Path directory;
+		try {
+			directory = UserCache.getDirectory("natives").resolve(CACHE_VERSION);
+		} catch (IOException e) {
+			System.out.println("[WARNING] Can't create the natives cache directory (" + e.getMessage() + "), using the temporary one");
+			// Shared by the following starts too, rather than a new directory every time
+			directory = Files.createDirectories(Paths.get(System.getProperty("java.io.tmpdir"), "projectarm-natives", CACHE_VERSION));
+		}
+		this.cacheDir = directory;
 	}
 
-	public static NativeJarGetter getInstance() {
+	public static synchronized NativeJarGetter getInstance() {
 		if (NativeJarGetter.nativeGetter == null) {
 			try {
 				NativeJarGetter.nativeGetter = new NativeJarGetter();
@@ -47,15 +73,83 @@ public class NativeJarGetter {
 		return this.getFile(executableName + "-" + System.getProperty("os.arch") + NativeJarGetter.getExecutableExtension());
 	}
 
-	public File getFile(String executableName) throws IOException {
-		File temp = new File(temporaryDir, executableName);
+	public synchronized File getFile(String executableName) throws IOException {
+		File file = this.extracted.get(executableName);
 
-		InputStream is = NativeJarGetter.class.getResourceAsStream(NativeJarGetter.NATIVE_DIR + executableName);
-		Files.copy(is, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		if (file == null) {
+			file = this.extract(executableName);
+			this.extracted.put(executableName, file);
+		}
 
-		temp.setExecutable(true);
+		return file;
+	}
 
-		return temp;
+	/**
+	 * Copy the file out of the jar unless a previous run already did.
+	 * The file is written under a temporary name then renamed, so concurrent
+	 * JVMs never see a partial file, and an extracted file which doesn't hold
+	 * the bundled content anymore is replaced.
+	 */
+	private File extract(String executableName) throws IOException {
+		byte[] content;
+
+		try (InputStream is = NativeJarGetter.class.getResourceAsStream(NativeJarGetter.NATIVE_DIR + executableName)) {
+			if (is == null) {
+				throw new IOException(executableName + " isn't bundled for this platform");
+			}
+			content = is.readAllBytes();
+		}
+
+		Path directory = Files.createDirectories(this.cacheDir.resolve(NativeJarGetter.hash(content)));
+		Path target = directory.resolve(executableName);
+
+		if (!NativeJarGetter.isExtracted(target, content)) {
+			Path temp = Files.createTempFile(directory, executableName, ".tmp");
+
+			try {
+				Files.write(temp, content);
+				temp.toFile().setExecutable(true);
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (FileAlreadyExistsException e) {
+				// Another JVM extracted the same content in the meantime
+			} catch (IOException e) {
+				// Windows refuses to replace a library another JVM has loaded, which is the same content
+				if (!NativeJarGetter.isExtracted(target, content)) {
+					throw e;
+				}
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		}
+
+		target.toFile().setExecutable(true);
+
+		return target.toFile();
+	}
+
+	/**
+	 * @return true if the file holds the given content
+	 */
+	private static boolean isExtracted(Path target, byte[] content) throws IOException {
+		return Files.isRegularFile(target) && Files.size(target) == content.length
+				&& Arrays.equals(Files.readAllBytes(target), content);
+	}
+
+	/**
+	 * @return The first 16 bytes of the SHA-256 of the content, in hexadecimal
+	 */
+	private static String hash(byte[] content) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+			StringBuilder hash = new StringBuilder();
+
+			for (int i = 0; i < 16; i++) {
+				hash.append(String.format("%02x", digest[i]));
+			}
+			return hash.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // Every JVM provides SHA-256
+		}
 	}
 
 	private static String getExecutableExtension() {
@@ -73,16 +167,4 @@ public class NativeJarGetter {
 		}
 		return ".so"; // Assumes a *NIX (Linux, FreeBSD, Solaris..) using ELF
 	}
-
-	public File createTempDirectory(String prefix) throws IOException {
-		String tempDir = System.getProperty("java.io.tmpdir");
-		File generatedDir = new File(tempDir, prefix + System.nanoTime());
-
-		if (!generatedDir.mkdir())
-			throw new IOException("Failed to create temp directory " + generatedDir.getName());
-
-		generatedDir.deleteOnExit();
-
-		return generatedDir;
-	}
 }
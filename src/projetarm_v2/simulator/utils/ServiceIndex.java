@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the implementations of a class listed in the META-INF/services/&lt;class name&gt; files of the
+ * classpath, like {@link java.util.ServiceLoader} does, but gives the classes instead of instances so they
+ * can be built with constructor arguments. Any jar on the classpath can add its own implementations.
+ *
+ * The index is read once per class and kept for the life of the JVM.
+ */
+public class ServiceIndex {
+
+	private static final String PREFIX = "META-INF/services/";
+
+	private static final Map<Class<?>, List<Class<?>>> cache = new ConcurrentHashMap<>();
+
+	private ServiceIndex() {}
+
+	/**
+	 * @param service The class whose implementations are wanted
+	 * @return The listed implementations, in the order of the index files
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> List<Class<? extends T>> getImplementations(Class<T> service) {
+		List<Class<?>> classes = cache.computeIfAbsent(service, ServiceIndex::readIndex);
+		return (List<Class<? extends T>>) (List<?>) classes;
+	}
+
+	private static List<Class<?>> readIndex(Class<?> service) {
+		ClassLoader loader = service.getClassLoader();
+		Set<String> names = new LinkedHashSet<>();
+
+		try {
+			Enumeration<URL> indexes = loader.getResources(PREFIX + service.getName());
+
+			while (indexes.hasMoreElements()) {
+				readNames(indexes.nextElement(), names);
+			}
+		} catch (IOException e) {
+			System.out.println("[ERROR] Can't read the index of " + service.getSimpleName() + ": " + e.getMessage());
+		}
+
+		List<Class<?>> classes = new ArrayList<>();
+
+		for (String name : names) {
+			try {
+				Class<?> implementation = Class.forName(name, false, loader);
+
+				if (service.isAssignableFrom(implementation)) {
+					classes.add(implementation);
+				} else {
+					System.out.println("[WARNING] " + name + " isn't a " + service.getSimpleName() + "... Ignoring");
+				}
+			} catch (ClassNotFoundException e) {
+				System.out.println("[WARNING] " + name + " not found... Ignoring");
+			}
+		}
+
+		return Collections.unmodifiableList(classes);
+	}
+
+	private static void readNames(URL index, Set<String> names) throws IOException {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(index.openStream(), StandardCharsets.UTF_8))) {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				int comment = line.indexOf('#');
+				if (comment >= 0) {
+					line = line.substring(0, comment);
+				}
+
+				line = line.trim();
+				if (!line.isEmpty()) {
+					names.add(line);
+				}
+			}
+		}
+	}
+}
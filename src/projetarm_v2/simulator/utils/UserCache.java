@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2018-2019 Valentin D'Emmanuele, Gilles Mertens, Dylan Fraisse, Hugo Chemarin, Nicolas Gervasi
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package projetarm_v2.simulator.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Locates the cache directory of the user, which survives restarts unlike the temporary directory
+ */
+public class UserCache {
+
+	private static final String APPLICATION = "ARMStrong";
+
+	private UserCache() {}
+
+	/**
+	 * Get a directory of the application's cache, created if needed
+	 * @param name The name of the cache, used as the directory name
+	 * @return The directory
+	 * @throws IOException If the directory can't be created
+	 */
+	public static Path getDirectory(String name) throws IOException {
+		return Files.createDirectories(getRoot().resolve(APPLICATION).resolve(name));
+	}
+
+	private static Path getRoot() {
+		String home = System.getProperty("user.home");
+
+		if (OSValidator.isWindows()) {
+			String localAppData = System.getenv("LOCALAPPDATA");
+			return localAppData != null ? Paths.get(localAppData) : Paths.get(home, "AppData", "Local");
+		} else if (OSValidator.isMac()) {
+			return Paths.get(home, "Library", "Caches");
+		}
+
+		String xdgCache = System.getenv("XDG_CACHE_HOME");
+		return xdgCache != null && !xdgCache.isEmpty() ? Paths.get(xdgCache) : Paths.get(home, ".cache");
+	}
+}
@@ -0,0 +1,97 @@
+package tests.projetarm_v2.simulator.core;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+import projetarm_v2.simulator.core.AssemblyCache;
+import projetarm_v2.simulator.core.AssemblyListing;
+
+class AssemblyCacheTdd {
+
+	private static AssemblyListing listing(long startingAddress) {
+		return new AssemblyListing(startingAddress, new byte[] {1, 2, 3, 4, 5, 6, 7, 8}, new int[] {0, 4, 8}, new int[] {4, 4, 0});
+	}
+
+	@Test
+	public void testKey() {
+		String key = AssemblyCache.key("listing", "mov r0, #1", 0x1000);
+
+		assertEquals(key, AssemblyCache.key("listing", "mov r0, #1", 0x1000));
+		assertNotEquals(key, AssemblyCache.key("listing", "mov r0, #1", 0x2000));
+		assertNotEquals(key, AssemblyCache.key("listing", "mov r0, #2", 0x1000));
+		assertNotEquals(key, AssemblyCache.key("binary", "mov r0, #1", 0x1000));
+	}
+
+	@Test
+	public void testEviction() {
+		AssemblyCache cache = new AssemblyCache(2, null);
+
+		cache.put("a", listing(0));
+		cache.put("b", listing(0));
+		assertNotNull(cache.get("a"));
+		cache.put("c", listing(0));
+
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("a"));
+		assertNotNull(cache.get("c"));
+		assertEquals(3, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testPersistence() throws IOException {
+		Path directory = Files.createTempDirectory("assembly");
+
+		try {
+			String key = AssemblyCache.key("listing", "mov r0, #1", 0x1000);
+			new AssemblyCache(4, directory).put(key, listing(0x1000));
+
+			AssemblyCache reopened = new AssemblyCache(4, directory);
+			AssemblyListing cached = reopened.get(key);
+
+			assertNotNull(cached);
+			assertEquals(0x1000, cached.getStartingAddress());
+			assertArrayEquals(listing(0x1000).getBytes(), cached.getBytes());
+			assertEquals(3, cached.size());
+			assertEquals(4, cached.getOffset(1));
+			assertEquals(0, cached.getSize(2));
+			assertEquals(1, reopened.getDiskHits());
+
+			assertNotNull(reopened.get(key));
+			assertEquals(1, reopened.getHits());
+		} finally {
+			try (var files = Files.list(directory)) {
+				files.forEach(file -> file.toFile().delete());
+			}
+			Files.delete(directory);
+		}
+	}
+
+	@Test
+	public void testDiskCapacity() throws IOException {
+		Path directory = Files.createTempDirectory("assembly");
+
+		try {
+			AssemblyCache cache = new AssemblyCache(4, directory, 2);
+			cache.put("a", listing(0));
+			cache.put("b", listing(0));
+			cache.put("c", listing(0));
+			cache.put("part", listing(0), false);
+
+			try (var files = Files.list(directory)) {
+				assertEquals(2, files.count());
+			}
+			assertNull(new AssemblyCache(4, directory, 2).get("part"));
+		} finally {
+			try (var files = Files.list(directory)) {
+				files.forEach(file -> file.toFile().delete());
+			}
+			Files.delete(directory);
+		}
+	}
+}
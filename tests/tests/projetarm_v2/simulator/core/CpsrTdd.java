@@ -7,6 +7,7 @@ import org.junit.jupiter.api.Test;
 
 import projetarm_v2.simulator.boilerplate.ArmSimulator;
 import projetarm_v2.simulator.core.Cpsr;
+import projetarm_v2.simulator.core.RegisterSnapshot;
 
 class CpsrTdd {
 	private ArmSimulator simulator;
@@ -122,4 +123,16 @@ class CpsrTdd {
 		this.cpsr.setQ(true);
 		assertTrue(this.simulator.getQ());
 	}
+
+	@Test
+	public void testSnapshot() {
+		this.simulator.setProgram("mov r0,#20; movs r1,#0");
+		this.simulator.run();
+		
+		RegisterSnapshot snapshot = this.simulator.snapshotRegisters();
+		assertEquals(20, snapshot.getRegister(0));
+		assertTrue(snapshot.z());
+		assertEquals(this.cpsr.toString(), snapshot.flagsToString());
+		assertEquals("NzCv", Cpsr.toString(0xA0000000));
+	}
 }
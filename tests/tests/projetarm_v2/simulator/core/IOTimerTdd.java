@@ -0,0 +1,84 @@
+package tests.projetarm_v2.simulator.core;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import projetarm_v2.simulator.core.VirtualClock;
+import projetarm_v2.simulator.core.io.IOTimer;
+
+class IOTimerTdd {
+	private AtomicLong instructions;
+	private VirtualClock clock;
+	private IOTimer timer;
+
+	@BeforeEach
+	public void Test() {
+		this.instructions = new AtomicLong();
+		this.clock = new VirtualClock(this.instructions::get);
+		this.clock.setMode(VirtualClock.Mode.FAST);
+		this.clock.setInstructionNanos(1000); // 1 instruction per microsecond
+		this.timer = new IOTimer(this.clock, true);
+	}
+
+	@Test
+	public void testOneShot() {
+		this.timer.write(IOTimer.LOAD, 100);
+		this.timer.write(IOTimer.CONTROL, IOTimer.ENABLE | IOTimer.IRQ_ENABLE);
+
+		this.instructions.set(40);
+		assertEquals(60, this.timer.read(IOTimer.VALUE));
+		assertFalse(this.timer.isInterrupting());
+
+		this.instructions.set(100);
+		assertTrue(this.timer.isInterrupting());
+		assertEquals(1, this.timer.read(IOTimer.STATUS));
+		assertEquals(0, this.timer.read(IOTimer.CONTROL) & IOTimer.ENABLE);
+		assertEquals(-1, this.timer.getNextExpiry());
+
+		this.timer.write(IOTimer.STATUS, 1);
+		assertFalse(this.timer.isInterrupting());
+	}
+
+	@Test
+	public void testPeriodic() {
+		this.timer.write(IOTimer.LOAD, 100);
+		this.timer.write(IOTimer.CONTROL, IOTimer.ENABLE | IOTimer.PERIODIC);
+		assertEquals(100_000, this.timer.getNextExpiry());
+
+		this.instructions.set(250);
+		assertEquals(1, this.timer.read(IOTimer.STATUS));
+		assertEquals(50, this.timer.read(IOTimer.VALUE));
+		assertEquals(300_000, this.timer.getNextExpiry());
+		// IRQ_ENABLE isn't set
+		assertFalse(this.timer.isInterrupting());
+	}
+
+	@Test
+	public void testIdle() {
+		this.timer.write(IOTimer.LOAD, 1_000_000);
+		this.timer.write(IOTimer.CONTROL, IOTimer.ENABLE | IOTimer.IRQ_ENABLE);
+
+		// wfi skips the idle second at once
+		this.clock.idleUntil(this.timer.getNextExpiry());
+		assertTrue(this.timer.isInterrupting());
+	}
+
+	@Test
+	public void testSnapshot() {
+		this.timer.write(IOTimer.LOAD, 100);
+		this.timer.write(IOTimer.CONTROL, IOTimer.ENABLE);
+		IOTimer saved = this.timer.copy();
+
+		this.instructions.set(100);
+		assertEquals(1, this.timer.read(IOTimer.STATUS));
+
+		this.timer.restore(saved);
+		this.instructions.set(50);
+		assertEquals(0, this.timer.read(IOTimer.STATUS));
+		assertEquals(50, this.timer.read(IOTimer.VALUE));
+	}
+}
@@ -0,0 +1,90 @@
+package tests.projetarm_v2.simulator.core;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import projetarm_v2.simulator.core.InputKind;
+import projetarm_v2.simulator.core.InputLog;
+
+class InputLogTdd {
+	private InputLog log;
+
+	@BeforeEach
+	public void Test() {
+		this.log = new InputLog();
+	}
+
+	@Test
+	public void testReplay() {
+		assertEquals(42, this.log.read(InputKind.RANDOM, 10, () -> 42));
+		assertArrayEquals("abc".getBytes(), this.log.readBytes(InputKind.CONSOLE_STRING, 20, () -> "abc".getBytes()));
+		assertEquals(7, this.log.read(InputKind.TIME, 30, () -> 7));
+		assertFalse(this.log.isReplaying());
+
+		this.log.rewind(15);
+		assertTrue(this.log.isReplaying());
+		assertArrayEquals("abc".getBytes(), this.log.readBytes(InputKind.CONSOLE_STRING, 20, () -> fail("Read again")));
+		assertEquals(7, this.log.read(InputKind.TIME, 30, () -> fail("Read again")));
+
+		// Past the end of the log the inputs are read again
+		assertEquals(8, this.log.read(InputKind.TIME, 40, () -> 8));
+		assertEquals(4, this.log.size());
+	}
+
+	@Test
+	public void testPortChanges() {
+		assertEquals(1, this.log.readPort(0x1F1000, 4, 1, () -> 1));
+		assertEquals(1, this.log.readPort(0x1F1000, 4, 2, () -> 1));
+		assertEquals(3, this.log.readPort(0x1F1000, 4, 3, () -> 3));
+		assertEquals(2, this.log.size());
+
+		this.log.rewind(1);
+		assertEquals(1, this.log.readPort(0x1F1000, 4, 2, () -> fail("Read again")));
+		assertEquals(3, this.log.readPort(0x1F1000, 4, 3, () -> fail("Read again")));
+		assertEquals(3, this.log.readPort(0x1F1000, 4, 4, () -> 3));
+		assertEquals(2, this.log.size());
+	}
+
+	@Test
+	public void testDivergence() {
+		this.log.read(InputKind.RANDOM, 10, () -> 1);
+		this.log.read(InputKind.RANDOM, 20, () -> 2);
+
+		this.log.rewind(0);
+		// The program now reads something else, the rest of the log is dropped
+		assertEquals(5, this.log.read(InputKind.TIME, 10, () -> 5));
+		assertEquals(1, this.log.size());
+	}
+
+	@Test
+	public void testJournal() throws IOException {
+		this.log.read(InputKind.RANDOM, 10, () -> -5);
+		this.log.readBytes(InputKind.FILE, 20, () -> null);
+		this.log.readBytes(InputKind.CONSOLE_STRING, 300, () -> "hello".getBytes());
+		this.log.readPort(0x1F1000, 1, 400, () -> 0xFF);
+		this.log.read(InputKind.TIME, 1L << 40, () -> Integer.MIN_VALUE);
+		this.log.setProgramHash("c0ffee");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		this.log.write(out);
+
+		InputLog journal = InputLog.read(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(5, journal.size());
+		assertEquals("c0ffee", journal.getProgramHash());
+		assertTrue(journal.isReplaying());
+		assertEquals(-5, journal.read(InputKind.RANDOM, 10, () -> fail("Read again")));
+		assertNull(journal.readBytes(InputKind.FILE, 20, () -> fail("Read again")));
+		assertArrayEquals("hello".getBytes(), journal.readBytes(InputKind.CONSOLE_STRING, 300, () -> fail("Read again")));
+		assertEquals(0xFF, journal.readPort(0x1F1000, 1, 400, () -> fail("Read again")));
+		assertEquals(Integer.MIN_VALUE, journal.read(InputKind.TIME, 1L << 40, () -> fail("Read again")));
+		assertFalse(journal.isReplaying());
+
+		assertThrows(IOException.class, () -> InputLog.read(new ByteArrayInputStream("nope".getBytes())));
+	}
+}
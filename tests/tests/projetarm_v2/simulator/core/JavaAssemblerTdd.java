@@ -0,0 +1,78 @@
+package tests.projetarm_v2.simulator.core;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import projetarm_v2.simulator.core.InvalidAssemblyException;
+import projetarm_v2.simulator.core.JavaAssembler;
+import projetarm_v2.simulator.core.UnsupportedAssemblyException;
+
+class JavaAssemblerTdd {
+	private final JavaAssembler assembler = new JavaAssembler();
+
+	private int[] words(String assembly) {
+		ByteBuffer buffer = ByteBuffer.wrap(this.assembler.assemble(assembly, 0x1000)).order(ByteOrder.LITTLE_ENDIAN);
+		int[] words = new int[buffer.remaining() / 4];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = buffer.getInt();
+		}
+		return words;
+	}
+
+	@Test
+	public void testDataProcessing() {
+		assertArrayEquals(new int[] { 0xE3A00001, 0xE0821103, 0x13A004FF, 0xE3A002FF, 0xE1B00000 },
+				words("mov r0, #1;add r1, r2, r3, lsl #2;movne r0, #0xFF000000;mov r0, #0xF000000F;movs r0, r0"));
+		assertArrayEquals(new int[] { 0xE3E00000, 0xE3700001, 0xE2400001 },
+				words("mov r0, #-1;cmp r0, #-1;add r0, r0, #-1"));
+		assertArrayEquals(new int[] { 0xE1A00102, 0xE0000291, 0xE0802093 },
+				words("lsl r0, r2, #2;mul r0, r1, r2;umull r2, r0, r3, r0"));
+	}
+
+	@Test
+	public void testLoadStore() {
+		assertArrayEquals(new int[] { 0xE5910004, 0xE52D0004, 0xE1D100B2, 0xE8B0000E, 0xE92D4010, 0xE49DF004 },
+				words("ldr r0, [r1, #4];str r0, [sp, #-4]!;ldrh r0, [r1, #2];ldmia r0!, {r1-r3};push {r4, lr};pop {pc}"));
+		assertArrayEquals(new int[] { 0xE51F0004, 0x12345678 }, words("ldr r0, =0x12345678"));
+	}
+
+	@Test
+	public void testBranches() {
+		assertArrayEquals(new int[] { 0xEAFFFFFE, 0x0BFFFFFF, 0xE12FFF1E }, words("loop: b loop;bleq next;next: bx lr"));
+	}
+
+	@Test
+	public void testDirectives() {
+		assertArrayEquals(new int[] { 0x00006968, 0xEF000018, 0x0000100C }, words(".asciz \"hi\";.align 2;svc #0x18;.word end;end:"));
+		assertArrayEquals(new int[] { 0xE3A00001, 0x00001000, 0x00001004 },
+				words("zzlistinga:;mov r0,#1;zzlistingb:;.ltorg;.align 2;.word zzlistinga,zzlistingb"));
+		assertArrayEquals(new int[] { 0xEA000001, 0x74736574, 0xA0000000, 0xE59F0004, 0xE59F1004, 0xE12FFF31, 0x00001004, 0x001F0008 },
+				words("b start;kek: .asciz \"test\";.align;start: ldr r0,=kek;ldr r1,=0x1F0008;blx r1"));
+	}
+
+	@Test
+	public void testUnsupported() {
+		assertThrows(UnsupportedAssemblyException.class, () -> this.assembler.assemble("blx #0x1000", 0));
+		assertThrows(UnsupportedAssemblyException.class, () -> this.assembler.assemble("vadd.f32 s0, s1, s2", 0));
+		assertThrows(UnsupportedAssemblyException.class, () -> this.assembler.assemble("mov r0, #0x1234", 0));
+		assertThrows(UnsupportedAssemblyException.class, () -> this.assembler.assemble("b nowhere", 0));
+	}
+
+	@Test
+	public void testInvalid() {
+		assertThrows(InvalidAssemblyException.class, () -> this.assembler.assemble("add r0", 0));
+		assertThrows(InvalidAssemblyException.class, () -> this.assembler.assemble("ldr r0, []", 0));
+		assertThrows(InvalidAssemblyException.class, () -> this.assembler.assemble("push {-}", 0));
+		assertThrows(InvalidAssemblyException.class, () -> this.assembler.assemble(".ascii \"a\\\"", 0));
+		assertArrayEquals(new int[] { 0x0022615C }, words(".asciz \"\\\\a\\\"\""));
+
+		InvalidAssemblyException error = assertThrows(InvalidAssemblyException.class,
+				() -> this.assembler.assemble(Arrays.asList("loop: mov r0, #1", "", "add r0;b loop"), 0));
+		assertEquals(2, error.getStatement());
+	}
+}
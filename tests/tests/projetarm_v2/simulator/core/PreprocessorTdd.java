@@ -0,0 +1,90 @@
+package tests.projetarm_v2.simulator.core;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import projetarm_v2.simulator.core.PreprocessedSource;
+import projetarm_v2.simulator.core.Preprocessor;
+import projetarm_v2.simulator.core.PreprocessorException;
+import projetarm_v2.simulator.core.routines.CpuBreakpoint;
+
+class PreprocessorTdd {
+
+	@Test
+	public void testEqu() {
+		assertEquals(";mov r0, #42;ldr r1, =42;.word 42;mov r2, #SIZEX",
+				Preprocessor.pass1(".equ SIZE, 42\nmov r0, #SIZE\nldr r1, =SIZE\n.word SIZE\nmov r2, #SIZEX"));
+		assertEquals("mov r0, #7;;", Preprocessor.pass1("mov r0, #B\n.equ A, 7\n.equ B, A"));
+	}
+
+	@Test
+	public void testLabels() {
+		assertEquals("loopO: b loopO;bl lOop;lOop:", Preprocessor.pass1("loop1: b loop1\nbl l1op\nl1op:"));
+		assertEquals("b other1;mov r1, r1", Preprocessor.pass1("b other1\nmov r1, r1"));
+	}
+
+	@Test
+	public void testDirectivesAndComments() {
+		assertEquals("blx #" + CpuBreakpoint.ROUTINE_ADDRESS + ";end: .word 0 ;.asciz \"a;b@c\";mov r0, r1 ",
+				Preprocessor.pass1(".breakpoint\nend: .stop @ done\n.asciz \"a;b@c\"\nmov r0, r1 @ .stop"));
+	}
+
+	@Test
+	public void testSourceMap() {
+		PreprocessedSource source = Preprocessor.preprocess("mov r0, #1; mov r1, #2\r\n\n@ comment\nb end;end:");
+
+		assertEquals(Arrays.asList("mov r0, #1", " mov r1, #2", "", "", "b end", "end:"), source.getStatements());
+		assertEquals(1, source.getLine(1));
+		assertEquals(2, source.getLine(2));
+		assertEquals(4, source.getLine(4));
+		assertEquals(4, source.getLine(5));
+	}
+
+	@Test
+	public void testMacro() {
+		PreprocessedSource source = Preprocessor.preprocess(".macro wait count, step=1\nloop: subs \\count, \\count, #\\step\nbne loop\n.endm\nwait r0\nwait r1, 2");
+		String assembly = source.getAssembly();
+
+		assertTrue(assembly.contains("loopzzma: subs r0, r0, #1;bne loopzzma"), assembly);
+		assertTrue(assembly.contains("loopzzmb: subs r1, r1, #2;bne loopzzmb"), assembly);
+		assertEquals(5, source.getLine(source.getStatements().indexOf("bne loopzzma")));
+		assertEquals(6, source.getLine(source.getStatements().indexOf("bne loopzzmb")));
+
+		assertThrows(PreprocessorException.class, () -> Preprocessor.preprocess(".macro nothing\nmov r0, r0"));
+	}
+
+	@Test
+	public void testInclude() throws IOException {
+		Path directory = Files.createTempDirectory("include");
+		Path library = directory.resolve("library.s");
+
+		try {
+			Files.writeString(library, ".equ VALUE, 3\n.macro set register\nmov \\register, #VALUE\n.endm\nroutine: bx lr");
+
+			PreprocessedSource source = Preprocessor.preprocess("b main\n.include \"library.s\"\nmain: set r2", directory);
+			assertTrue(source.getAssembly().contains("routine: bx lr"), source.getAssembly());
+			assertTrue(source.getStatements().contains("mov r2, #3"), source.getAssembly());
+			assertEquals(2, source.getLine(source.getStatements().indexOf("routine: bx lr")));
+			assertEquals(3, source.getLine(source.getStatements().indexOf("mov r2, #3")));
+
+			Files.writeString(library, ".equ VALUE, 4\n.macro set register\nmov \\register, #VALUE\n.endm");
+			Files.setLastModifiedTime(library, FileTime.fromMillis(Files.getLastModifiedTime(library).toMillis() + 2000));
+			source = Preprocessor.preprocess(".include \"library.s\"\nset r2", directory);
+			assertTrue(source.getStatements().contains("mov r2, #4"), source.getAssembly());
+
+			Files.writeString(library, ".include \"library.s\"");
+			Files.setLastModifiedTime(library, FileTime.fromMillis(Files.getLastModifiedTime(library).toMillis() + 4000));
+			assertThrows(PreprocessorException.class, () -> Preprocessor.preprocess(".include \"library.s\"", directory));
+		} finally {
+			Files.deleteIfExists(library);
+			Files.delete(directory);
+		}
+	}
+}
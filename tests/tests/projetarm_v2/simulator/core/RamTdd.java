@@ -0,0 +1,191 @@
+package tests.projetarm_v2.simulator.core;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import projetarm_v2.simulator.core.Ram;
+import projetarm_v2.simulator.core.RamSnapshot;
+
+class RamTdd {
+	private Ram ram;
+
+	@BeforeEach
+	public void Test() {
+		this.ram = new Ram();
+	}
+
+	@Test
+	public void testByte() {
+		this.ram.setByte(0x1000, (byte)0x42);
+		assertEquals((byte)0x42, this.ram.getByte(0x1000));
+		assertEquals(0, this.ram.getByte(0x1001));
+		assertEquals(0, this.ram.getByte(0x1F1000));
+	}
+
+	@Test
+	public void testLittleEndian() {
+		this.ram.setValue(0x2000, 0x11223344);
+		assertEquals((byte)0x44, this.ram.getByte(0x2000));
+		assertEquals((byte)0x11, this.ram.getByte(0x2003));
+		assertEquals((short)0x3344, this.ram.getHWord(0x2000));
+		assertEquals((short)0x1122, this.ram.getHWord(0x2002));
+
+		this.ram.setHWord(0x3000, (short)0xBEEF);
+		assertEquals(0xBEEF, this.ram.getValue(0x3000));
+	}
+
+	@Test
+	public void testAcrossPages() {
+		long address = Ram.CHUNK_SIZE - 2;
+
+		this.ram.setValue(address, 0xCAFEBABE);
+		assertEquals(0xCAFEBABE, this.ram.getValue(address));
+		assertEquals((short)0xCAFE, this.ram.getHWord(address + 2));
+		assertEquals(2, this.ram.getRamChunks().size());
+
+		this.ram.setHWord(2 * Ram.CHUNK_SIZE - 1, (short)0x1234);
+		assertEquals((short)0x1234, this.ram.getHWord(2 * Ram.CHUNK_SIZE - 1));
+	}
+
+	@Test
+	public void testHighAddresses() {
+		this.ram.setValue(0xFFFFFFFCL, 0x12345678);
+		assertEquals(0x12345678, this.ram.getValue(0xFFFFFFFCL));
+		assertEquals(0x12345678, this.ram.getValue(-4));
+	}
+
+	@Test
+	public void testClear() {
+		this.ram.setValue(0x1000, -1);
+		this.ram.clear();
+		assertEquals(0, this.ram.getValue(0x1000));
+		assertTrue(this.ram.getRamChunks().isEmpty());
+	}
+
+	@Test
+	public void testDirtyPages() {
+		this.ram.setValue(0x1000, 1);
+		this.ram.setByte(0x1004, (byte)2);
+		this.ram.setHWord(0x5000, (short)3);
+		assertEquals(2, this.ram.takeDirtyChunks().size());
+		assertTrue(this.ram.takeDirtyChunks().isEmpty());
+
+		this.ram.getValue(0x1000);
+		assertTrue(this.ram.takeDirtyChunks().isEmpty());
+
+		this.ram.markAllDirty();
+		assertEquals(2, this.ram.takeDirtyChunks().size());
+	}
+
+	@Test
+	public void testDirect() {
+		Ram direct = Ram.direct(4 * Ram.CHUNK_SIZE);
+
+		assertEquals(4 * Ram.CHUNK_SIZE, direct.getBackedSize());
+		assertEquals(4, direct.takeDirtyChunks().size());
+
+		direct.setValue(Ram.CHUNK_SIZE - 2, 0xCAFEBABE);
+		direct.setValue(0x10000, 0x12345678);
+		assertEquals(0xCAFEBABE, direct.getValue(Ram.CHUNK_SIZE - 2));
+		assertEquals(0x12345678, direct.getValue(0x10000));
+		assertEquals(5, direct.getRamChunks().size());
+
+		direct.clear();
+		assertEquals(0, direct.getValue(Ram.CHUNK_SIZE - 2));
+		assertEquals(4, direct.getRamChunks().size());
+		assertEquals(4, direct.takeDirtyChunks().size());
+	}
+
+	@Test
+	public void testMappedPersistence() throws IOException {
+		Path image = Files.createTempFile("ram", ".img");
+
+		try {
+			Ram mapped = Ram.mapped(image, 2 * Ram.CHUNK_SIZE);
+			mapped.setValue(0x1000, 0x11223344);
+			mapped.flush();
+
+			Ram reopened = Ram.mapped(image, 2 * Ram.CHUNK_SIZE);
+			assertEquals(0x11223344, reopened.getValue(0x1000));
+		} finally {
+			Files.deleteIfExists(image);
+		}
+	}
+
+	@Test
+	public void testBulk() {
+		byte[] data = new byte[3 * Ram.CHUNK_SIZE];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i + 1);
+		}
+
+		this.ram.write(Ram.CHUNK_SIZE - 10, data);
+		byte[] read = new byte[data.length];
+		this.ram.read(Ram.CHUNK_SIZE - 10, read);
+		assertArrayEquals(data, read);
+
+		this.ram.fill(0x10000, Ram.CHUNK_SIZE + 1, (byte) 0x55);
+		assertEquals((byte) 0x55, this.ram.getByte(0x10000 + Ram.CHUNK_SIZE));
+		assertEquals(0, this.ram.getByte(0x10001 + Ram.CHUNK_SIZE));
+
+		this.ram.copy(Ram.CHUNK_SIZE - 10, Ram.CHUNK_SIZE - 8, data.length);
+		this.ram.read(Ram.CHUNK_SIZE - 8, read);
+		assertArrayEquals(data, read);
+	}
+
+	@Test
+	public void testString() {
+		this.ram.write(Ram.CHUNK_SIZE - 3, "Hello".getBytes());
+		assertEquals(5, this.ram.indexOf(Ram.CHUNK_SIZE - 3, (byte) 0, 100));
+		assertEquals(-1, this.ram.indexOf(Ram.CHUNK_SIZE - 3, (byte) 0, 5));
+		assertEquals("Hello", new String(this.ram.readString(Ram.CHUNK_SIZE - 3)));
+	}
+
+	@Test
+	public void testSnapshot() {
+		this.ram.setValue(0x1000, 1);
+		this.ram.setValue(0x2000, 2);
+		this.ram.takeDirtyChunks();
+
+		RamSnapshot snapshot = this.ram.snapshot();
+		assertEquals(2, snapshot.getPageCount());
+
+		this.ram.setValue(0x1000, 3);
+		this.ram.setValue(0x5000, 4);
+		this.ram.takeDirtyChunks();
+
+		this.ram.restore(snapshot);
+		assertEquals(1, this.ram.getValue(0x1000));
+		assertEquals(2, this.ram.getValue(0x2000));
+		assertEquals(0, this.ram.getValue(0x5000));
+		// Only the changed page and the page allocated since have to be pushed again
+		assertEquals(2, this.ram.takeDirtyChunks().size());
+
+		// The snapshot can be restored again after the restored pages are written
+		this.ram.setValue(0x2000, 5);
+		this.ram.restore(snapshot);
+		assertEquals(2, this.ram.getValue(0x2000));
+		assertEquals(1, this.ram.takeDirtyChunks().size());
+	}
+
+	@Test
+	public void testDirectSnapshot() {
+		Ram direct = Ram.direct(2 * Ram.CHUNK_SIZE);
+		direct.setValue(0x10, 1);
+		direct.takeDirtyChunks();
+
+		RamSnapshot snapshot = direct.snapshot();
+		direct.setValue(0x10, 2);
+		direct.takeDirtyChunks();
+
+		direct.restore(snapshot);
+		assertEquals(1, direct.getValue(0x10));
+		assertEquals(1, direct.takeDirtyChunks().size());
+	}
+}
@@ -0,0 +1,63 @@
+package tests.projetarm_v2.simulator.core;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import projetarm_v2.simulator.core.VirtualClock;
+
+class VirtualClockTdd {
+	private AtomicLong instructions;
+	private VirtualClock clock;
+
+	@BeforeEach
+	public void Test() {
+		this.instructions = new AtomicLong();
+		this.clock = new VirtualClock(this.instructions::get);
+		this.clock.setMode(VirtualClock.Mode.FAST);
+	}
+
+	@Test
+	public void testFastSleep() {
+		long start = System.nanoTime();
+		this.clock.sleep(60_000);
+		assertTrue(System.nanoTime() - start < 1_000_000_000L);
+		assertEquals(60_000_000_000L, this.clock.nanoTime());
+
+		this.instructions.set(10);
+		assertEquals(60_000_000_000L + 10 * VirtualClock.DEFAULT_INSTRUCTION_NANOS, this.clock.nanoTime());
+
+		this.clock.reset();
+		this.instructions.set(0);
+		assertEquals(0, this.clock.nanoTime());
+	}
+
+	@Test
+	public void testWaitFor() throws InterruptedException {
+		Thread waiting = new Thread(() -> this.clock.waitFor(1000));
+		waiting.start();
+
+		// The virtual time doesn't go on by itself
+		waiting.join(100);
+		assertTrue(waiting.isAlive());
+
+		this.clock.skip(1000);
+		waiting.join(1000);
+		assertFalse(waiting.isAlive());
+	}
+
+	@Test
+	public void testWakeUp() throws InterruptedException {
+		this.clock.setMode(VirtualClock.Mode.REAL);
+		Thread sleeping = new Thread(() -> this.clock.sleep(60_000));
+		sleeping.start();
+
+		Thread.sleep(50);
+		this.clock.wakeUp();
+		sleeping.join(1000);
+		assertFalse(sleeping.isAlive());
+	}
+}
@@ -0,0 +1,49 @@
+package tests.projetarm_v2.simulator.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.reflections.Reflections;
+
+import projetarm_v2.simulator.core.routines.CpuRoutine;
+import projetarm_v2.simulator.core.syscalls.SVCCall;
+import projetarm_v2.simulator.core.syscalls.io.SVCIOCall;
+import projetarm_v2.simulator.utils.ServiceIndex;
+
+class ServiceIndexTdd {
+
+	private static <T> void assertIndexComplete(Class<T> service, String packageName) {
+		Set<Class<? extends T>> scanned = new Reflections(packageName).getSubTypesOf(service).stream()
+				.filter(type -> !Modifier.isAbstract(type.getModifiers()))
+				.collect(Collectors.toSet());
+
+		assertEquals(scanned, new HashSet<>(ServiceIndex.getImplementations(service)));
+	}
+
+	@Test
+	public void testRoutines() {
+		assertIndexComplete(CpuRoutine.class, "projetarm_v2.simulator.core.routines");
+	}
+
+	@Test
+	public void testSyscalls() {
+		Set<Class<? extends SVCCall>> calls = new HashSet<>(ServiceIndex.getImplementations(SVCCall.class));
+		calls.addAll(ServiceIndex.getImplementations(SVCIOCall.class));
+
+		Set<Class<? extends SVCCall>> scanned = new Reflections("projetarm_v2.simulator.core.syscalls").getSubTypesOf(SVCCall.class).stream()
+				.filter(type -> !Modifier.isAbstract(type.getModifiers()))
+				.collect(Collectors.toSet());
+
+		assertEquals(scanned, calls);
+	}
+
+	@Test
+	public void testIOSyscalls() {
+		assertIndexComplete(SVCIOCall.class, "projetarm_v2.simulator.core.syscalls.io");
+	}
+}